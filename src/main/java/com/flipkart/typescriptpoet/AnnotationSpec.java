@@ -19,6 +19,7 @@ import javax.lang.model.element.*;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.SimpleAnnotationValueVisitor7;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Array;
 import java.lang.reflect.Method;
@@ -154,6 +155,19 @@ public final class AnnotationSpec {
         codeWriter.emit(whitespace + "}");
     }
 
+    /**
+     * Visits this annotation with {@code visitor}: its type and member values.
+     */
+    public void accept(SpecVisitor visitor) {
+        if (!visitor.visitAnnotation(this)) return;
+        type.accept(visitor);
+        for (List<CodeBlock> values : members.values()) {
+            for (CodeBlock value : values) {
+                value.accept(visitor);
+            }
+        }
+    }
+
     public Builder toBuilder() {
         Builder builder = new Builder(type);
         for (Map.Entry<String, List<CodeBlock>> entry : members.entrySet()) {
@@ -183,7 +197,7 @@ public final class AnnotationSpec {
             codeWriter.emit("$L", this);
             return out.toString();
         } catch (IOException e) {
-            throw new AssertionError();
+            throw new UncheckedIOException(e);
         }
     }
 
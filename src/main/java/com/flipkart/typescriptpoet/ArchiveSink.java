@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2018 Flipkart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flipkart.typescriptpoet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static com.flipkart.typescriptpoet.Util.checkArgument;
+import static com.flipkart.typescriptpoet.Util.checkNotNull;
+import static com.flipkart.typescriptpoet.Util.checkState;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes files straight into a zip (or jar) archive or a gzip-compressed tar archive, without
+ * touching the filesystem.
+ * <p>
+ * <p>Archives are reproducible: entries appear in the order their writers are closed, which for a
+ * {@link TypeScriptProject} is the order of its files followed by the barrels sorted by package, and
+ * every entry has the same timestamp and permissions. Files may be opened concurrently; each is
+ * buffered until its writer is closed. Closing the sink finishes the archive and closes the stream.
+ */
+public final class ArchiveSink implements OutputSink {
+    private static final int BLOCK_SIZE = 512;
+    /**
+     * 1980-02-01T00:00 in the default time zone. Zip stores local times, so every archive gets the same
+     * bytes; the date stays clear of the 1980-01-01 zip epoch.
+     */
+    private static final long ZIP_TIME = new GregorianCalendar(1980, Calendar.FEBRUARY, 1).getTimeInMillis();
+    /**
+     * 1980-02-01T00:00Z in seconds, so both formats carry the same date.
+     */
+    private static final long TAR_TIME = 318211200L;
+
+    private final OutputStream out;
+    private final ZipOutputStream zip;
+    private final String pathPrefix;
+    private final Set<String> paths = new HashSet<>();
+    private boolean closed;
+
+    private ArchiveSink(OutputStream out, boolean zip, String pathPrefix) throws IOException {
+        checkNotNull(out, "out == null");
+        checkNotNull(pathPrefix, "pathPrefix == null");
+        checkArgument(pathPrefix.isEmpty() || pathPrefix.endsWith("/"), "invalid pathPrefix: %s", pathPrefix);
+        if (!pathPrefix.isEmpty()) Util.checkRelativePath(pathPrefix.substring(0, pathPrefix.length() - 1));
+        this.zip = zip ? new ZipOutputStream(out, UTF_8) : null;
+        this.out = zip ? this.zip : new GZIPOutputStream(out, 8192);
+        this.pathPrefix = pathPrefix;
+    }
+
+    /**
+     * Returns a sink that writes a zip archive to {@code out}. Jars are zip archives too.
+     */
+    public static ArchiveSink zip(OutputStream out) throws IOException {
+        return new ArchiveSink(out, true, "");
+    }
+
+    /**
+     * Returns a sink that writes a zip archive to {@code out}, with every path starting with {@code
+     * pathPrefix}, like {@code "META-INF/resources/"}.
+     */
+    public static ArchiveSink zip(OutputStream out, String pathPrefix) throws IOException {
+        return new ArchiveSink(out, true, pathPrefix);
+    }
+
+    /**
+     * Returns a sink that writes a gzip-compressed tar archive to {@code out}.
+     */
+    public static ArchiveSink tarGz(OutputStream out) throws IOException {
+        return new ArchiveSink(out, false, "");
+    }
+
+    /**
+     * Returns a sink that writes a gzip-compressed tar archive to {@code out}, with every path
+     * starting with {@code pathPrefix}, like the {@code "package/"} directory of npm tarballs.
+     */
+    public static ArchiveSink tarGz(OutputStream out, String pathPrefix) throws IOException {
+        return new ArchiveSink(out, false, pathPrefix);
+    }
+
+    @Override
+    public Writer openFile(String path) throws IOException {
+        Util.checkRelativePath(path);
+        final String name = pathPrefix + path;
+        synchronized (this) {
+            checkState(!closed, "sink is closed");
+            checkArgument(paths.add(name), "duplicate path: %s", name);
+        }
+        return new EntryWriter(name);
+    }
+
+    /**
+     * Closes {@code writer} without adding its entry to the archive.
+     */
+    @Override
+    public void discard(Writer writer) throws IOException {
+        if (!(writer instanceof EntryWriter)) {
+            writer.close();
+            return;
+        }
+        EntryWriter entry = (EntryWriter) writer;
+        if (entry.done) return;
+        entry.done = true;
+        synchronized (this) {
+            paths.remove(entry.name);
+        }
+    }
+
+    /**
+     * Buffers an entry until it is complete, since tar headers hold the size of their content.
+     */
+    private final class EntryWriter extends OutputStreamWriter {
+        final String name;
+        final ByteArrayOutputStream content;
+        boolean done;
+
+        EntryWriter(String name) {
+            this(name, new ByteArrayOutputStream());
+        }
+
+        private EntryWriter(String name, ByteArrayOutputStream content) {
+            super(content, UTF_8);
+            this.name = name;
+            this.content = content;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (done) return;
+            done = true;
+            addEntry(name, content.toByteArray());
+        }
+    }
+
+    private synchronized void addEntry(String name, byte[] content) throws IOException {
+        checkState(!closed, "sink is closed");
+        if (zip != null) {
+            ZipEntry entry = new ZipEntry(name);
+            entry.setTime(ZIP_TIME);
+            zip.putNextEntry(entry);
+            zip.write(content);
+            zip.closeEntry();
+        } else {
+            out.write(tarHeader(name, content.length));
+            out.write(content);
+            out.write(new byte[padding(content.length)]);
+        }
+    }
+
+    /**
+     * Returns the ustar header of a regular file. Names longer than 100 bytes are split at a slash
+     * into the 155 byte prefix field and the name field.
+     */
+    private static byte[] tarHeader(String name, int size) {
+        byte[] nameBytes = name.getBytes(UTF_8);
+        int split = 0;
+        if (nameBytes.length > 100) {
+            split = name.lastIndexOf('/', name.length() - 1);
+            while (split >= 0 && name.substring(0, split).getBytes(UTF_8).length > 155) {
+                split = name.lastIndexOf('/', split - 1);
+            }
+            checkArgument(split > 0 && name.substring(split + 1).getBytes(UTF_8).length <= 100,
+                    "path is too long for a tar archive: %s", name);
+        }
+        byte[] header = new byte[BLOCK_SIZE];
+        if (split == 0) {
+            put(header, 0, nameBytes);
+        } else {
+            put(header, 0, name.substring(split + 1).getBytes(UTF_8));
+            put(header, 345, name.substring(0, split).getBytes(UTF_8));
+        }
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, TAR_TIME);
+        header[156] = '0';
+        put(header, 257, "ustar\u000000".getBytes(US_ASCII));
+
+        // The checksum is computed with its own field filled with spaces.
+        for (int i = 148; i < 156; i++) header[i] = ' ';
+        int checksum = 0;
+        for (byte b : header) checksum += b & 0xff;
+        putOctal(header, 148, 7, checksum);
+        return header;
+    }
+
+    private static void put(byte[] header, int offset, byte[] value) {
+        System.arraycopy(value, 0, header, offset, value.length);
+    }
+
+    /**
+     * Writes {@code value} as zero-padded octal digits followed by a NUL in {@code length} bytes.
+     */
+    private static void putOctal(byte[] header, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        checkArgument(digits.length() < length, "value too large for a tar header: %s", value);
+        for (int i = 0; i < length - 1; i++) {
+            int digit = i - (length - 1 - digits.length());
+            header[offset + i] = (byte) (digit < 0 ? '0' : digits.charAt(digit));
+        }
+        header[offset + length - 1] = 0;
+    }
+
+    private static int padding(int size) {
+        return (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+    }
+
+    /**
+     * Finishes the archive and closes the underlying stream.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (zip == null) out.write(new byte[2 * BLOCK_SIZE]); // The end-of-archive marker.
+        out.close();
+    }
+}
@@ -86,6 +86,11 @@ public final class ArrayTypeName extends TypeName {
         return new ArrayTypeName(componentType);
     }
 
+    @Override
+    void acceptComponents(SpecVisitor visitor) {
+        componentType.accept(visitor);
+    }
+
     @Override
     CodeWriter emit(CodeWriter out) throws IOException {
         return out.emit("$T[]", componentType);
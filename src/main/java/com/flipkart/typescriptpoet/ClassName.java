@@ -41,8 +41,8 @@ public final class ClassName extends TypeName implements Comparable<ClassName> {
 
     private ClassName(List<String> names, List<AnnotationSpec> annotations) {
         super(annotations);
-        this.names = Util.immutableList(names);
-        this.canonicalName = (names.get(0).isEmpty()
+        this.names = Util.immutableList(NamePool.canonical(names));
+        this.canonicalName = NamePool.canonical(names.get(0).isEmpty()
                 ? Util.join(".", names.subList(1, names.size()))
                 : Util.join(".", names));
     }
@@ -69,7 +69,7 @@ public final class ClassName extends TypeName implements Comparable<ClassName> {
         int lastDot = clazz.getName().lastIndexOf('.');
         if (lastDot != -1) names.add(clazz.getName().substring(0, lastDot));
         Collections.reverse(names);
-        return new ClassName(names);
+        return NamePool.canonical(new ClassName(names));
     }
 
     /**
@@ -81,7 +81,7 @@ public final class ClassName extends TypeName implements Comparable<ClassName> {
         result.add(packageName);
         result.add(simpleName);
         Collections.addAll(result, simpleNames);
-        return new ClassName(result);
+        return NamePool.canonical(new ClassName(result));
     }
 
     /**
@@ -97,7 +97,7 @@ public final class ClassName extends TypeName implements Comparable<ClassName> {
         }
         names.add(getPackage(element).getQualifiedName().toString());
         Collections.reverse(names);
-        return new ClassName(names);
+        return NamePool.canonical(new ClassName(names));
     }
 
     private static boolean isClassOrInterface(Element e) {
@@ -128,10 +128,6 @@ public final class ClassName extends TypeName implements Comparable<ClassName> {
         return names.get(0);
     }
 
-    String fullyQualifiedName() {
-        return packageName().replace(".", "/") + "/" + simpleName();
-    }
-
     /**
      * Returns the enclosing class, like {@link Map} for {@code Map.Entry}. Returns null if this class
      * is not nested in another class.
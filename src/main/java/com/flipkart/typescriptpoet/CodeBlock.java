@@ -18,14 +18,23 @@ package com.flipkart.typescriptpoet;
 import javax.lang.model.element.Element;
 import javax.lang.model.type.TypeMirror;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collector;
 
 import static com.flipkart.typescriptpoet.Util.checkArgument;
+import static com.flipkart.typescriptpoet.Util.checkNotNull;
+import static com.flipkart.typescriptpoet.Util.checkState;
 
 /**
  * A fragment of a .ts file, potentially containing declarations, statements, and documentation.
@@ -38,8 +47,10 @@ import static com.flipkart.typescriptpoet.Util.checkArgument;
  * <p>
  * <ul>
  * <li>{@code $L} emits a <em>literal</em> value with no escaping. Arguments for literals may be
- * strings, primitives, {@linkplain TypeSpec type declarations}, {@linkplain AnnotationSpec
- * annotations} and even other code blocks.
+ * strings, primitives, {@linkplain DataLiteral arrays and maps of primitives}, {@linkplain
+ * EmbeddedContent embedded files}, {@linkplain TypeSpec type declarations}, {@linkplain
+ * AnnotationSpec annotations} and even other code blocks. Other objects are emitted as their
+ * {@code toString()}; use {@link #lazy} to build a block each time it is emitted.
  * <li>{@code $N} emits a <em>name</em>, using name collision avoidance where necessary. Arguments
  * for names may be strings (actually any {@linkplain CharSequence character sequence}),
  * {@linkplain ParameterSpec parameters}, {@linkplain FieldSpec fields}, {@linkplain
@@ -63,6 +74,16 @@ public final class CodeBlock {
     private static final Pattern NAMED_ARGUMENT =
             Pattern.compile("\\$(?<argumentName>[\\w_]+):(?<typeChar>[\\w]).*");
     private static final Pattern LOWERCASE = Pattern.compile("[a-z]+[\\w_]*");
+    /**
+     * Format part referencing a child block, which is the corresponding entry in {@link #args}.
+     * Users cannot create this part: {@code $B} is rejected by {@link Builder#add}.
+     */
+    static final String NESTED_BLOCK = "$B";
+    /**
+     * Blocks with at most this many format parts are copied when added to a builder; larger blocks
+     * are referenced as a single {@link #NESTED_BLOCK} part instead.
+     */
+    private static final int INLINE_LIMIT = 16;
 
     /**
      * A heterogeneous list containing string literals and value placeholders.
@@ -75,10 +96,141 @@ public final class CodeBlock {
         this.args = Util.immutableList(builder.args);
     }
 
+    /**
+     * Takes ownership of the lists of a builder that will not be used again, without copying them.
+     */
+    private CodeBlock(List<String> formatParts, List<Object> args) {
+        this.formatParts = Collections.unmodifiableList(formatParts);
+        this.args = Collections.unmodifiableList(args);
+    }
+
     public static CodeBlock of(String format, Object... args) {
         return new Builder().add(format, args).build();
     }
 
+    /**
+     * Joins {@code codeBlocks} into a single {@link CodeBlock}, each separated by {@code separator}.
+     * For example, joining {@code String s}, {@code Object o} and {@code int i} using {@code ", "}
+     * would produce {@code String s, Object o, int i}.
+     */
+    public static CodeBlock join(Iterable<CodeBlock> codeBlocks, String separator) {
+        Joiner joiner = new Joiner(separator);
+        for (CodeBlock codeBlock : codeBlocks) {
+            joiner.add(codeBlock);
+        }
+        return joiner.join("", "");
+    }
+
+    /**
+     * A {@link Collector} implementation that joins {@link CodeBlock} instances together into one
+     * separated by {@code separator}. For example, joining {@code String s}, {@code Object o} and
+     * {@code int i} using {@code ", "} would produce {@code String s, Object o, int i}.
+     */
+    public static Collector<CodeBlock, ?, CodeBlock> joining(String separator) {
+        return joining(separator, "", "");
+    }
+
+    /**
+     * A {@link Collector} implementation that joins {@link CodeBlock} instances together into one
+     * separated by {@code separator} and surrounded by {@code prefix} and {@code suffix}. The
+     * separator, prefix and suffix are emitted verbatim. Partial results of a parallel stream are
+     * merged in constant time, without copying either side.
+     */
+    public static Collector<CodeBlock, ?, CodeBlock> joining(
+            final String separator, final String prefix, final String suffix) {
+        checkNotNull(separator, "separator == null");
+        checkNotNull(prefix, "prefix == null");
+        checkNotNull(suffix, "suffix == null");
+        return Collector.of(
+                () -> new Joiner(separator),
+                Joiner::add,
+                Joiner::merge,
+                joiner -> joiner.join(prefix, suffix));
+    }
+
+    /**
+     * Returns a block whose content is built by {@code supplier} each time the block is emitted, and
+     * dropped afterwards. Writing a file emits its blocks twice: once to collect imports and once to
+     * write, so {@code supplier} must return the same content every time.
+     */
+    public static CodeBlock lazy(Supplier<CodeBlock> supplier) {
+        return of("$L", new Lazy(checkNotNull(supplier, "supplier == null")));
+    }
+
+    /**
+     * Returns a block that emits the blocks of {@code blocks} in order, iterating it each time the
+     * block is emitted. Only the block being emitted needs to be in memory if {@code blocks} builds
+     * its elements on demand.
+     */
+    public static CodeBlock stream(Iterable<CodeBlock> blocks) {
+        return of("$L", new Stream(checkNotNull(blocks, "blocks == null"), null,
+                Collections.<TypeName>emptyList()));
+    }
+
+    /**
+     * Returns a block that emits the blocks of {@code blocks} in order, consuming them as they are
+     * written. The block can be emitted only once, and {@code toString()} emits it too. Writing a
+     * file collects its imports without consuming {@code blocks}, so the blocks may only refer to
+     * {@code referencedTypes} and to types that the rest of the file imports or declares.
+     * <p>
+     * <p>Operations that render specs before they are written, like {@link TypeScriptFile#split},
+     * {@link PackingPolicy#bySize size-based packing}, {@link Deduplicator} and comparing text in
+     * {@link DependencyGraph} or {@link TypeSpec.ConcurrentBuilder}, reject these blocks.
+     */
+    public static CodeBlock streamOnce(Iterator<CodeBlock> blocks, TypeName... referencedTypes) {
+        checkNotNull(referencedTypes, "referencedTypes == null");
+        return of("$L", new Stream(null, checkNotNull(blocks, "blocks == null"),
+                Arrays.asList(referencedTypes.clone())));
+    }
+
+    /**
+     * Returns a copy of {@code block} rendered once and stored as UTF-8 in direct memory, so that a
+     * large block reused by several files doesn't occupy the Java heap. The copy is emitted by
+     * decoding the stored text in chunks, indented like the original.
+     * <p>
+     * <p>Because the names of types depend on the file they are emitted in, {@code block} must not
+     * reference any; use {@code $L} for names instead. Its relative indentation is rendered with two
+     * spaces per level.
+     *
+     * @throws IllegalArgumentException if {@code block} references a type.
+     */
+    public static CodeBlock offHeap(CodeBlock block) {
+        checkNotNull(block, "block == null");
+        try {
+            return of("$L", OffHeapContent.store(block, null));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Like {@link #offHeap(CodeBlock)}, but stores the text in a memory-mapped file created in {@code
+     * spillDirectory}, so that it occupies neither the Java heap nor direct memory. Blocks are
+     * limited to 2 GiB of text.
+     */
+    public static CodeBlock offHeap(CodeBlock block, Path spillDirectory) throws IOException {
+        checkNotNull(block, "block == null");
+        checkNotNull(spillDirectory, "spillDirectory == null");
+        return of("$L", OffHeapContent.store(block, spillDirectory));
+    }
+
+    /**
+     * Returns a region named {@code name} whose content is written by hand. The region is emitted
+     * between {@code //#region name} and {@code //#endregion} lines, with {@code defaultContent} in
+     * between. When a file is written over an existing version that has a region of the same name,
+     * the region keeps the existing content instead. Regions do not nest.
+     */
+    public static CodeBlock protectedRegion(String name, CodeBlock defaultContent) {
+        checkArgument(name != null && !name.trim().isEmpty() && name.equals(name.trim())
+                && name.indexOf('\n') == -1, "invalid region name: %s", name);
+        checkNotNull(defaultContent, "defaultContent == null");
+        return builder()
+                .add("$L$L\n", RegionWriter.BEGIN_MARKER, name)
+                .add(defaultContent)
+                .add("$L\n", RegionWriter.END_MARKER)
+                .build();
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -107,7 +259,7 @@ public final class CodeBlock {
             new CodeWriter(out).emit(this);
             return out.toString();
         } catch (IOException e) {
-            throw new AssertionError();
+            throw new UncheckedIOException(e);
         }
     }
 
@@ -118,6 +270,268 @@ public final class CodeBlock {
         return builder;
     }
 
+    Cursor cursor() {
+        return new Cursor(this);
+    }
+
+    /**
+     * Visits this block with {@code visitor}: the arguments of its placeholders, in order. Nested
+     * blocks added by reference are visited as if their parts had been copied into this one.
+     */
+    public void accept(SpecVisitor visitor) {
+        if (!visitor.visitCodeBlock(this)) return;
+        Cursor cursor = cursor();
+        for (String part; (part = cursor.next()) != null; ) {
+            switch (part) {
+                case "$L":
+                    acceptLiteral(visitor, cursor.nextArg());
+                    break;
+
+                case "$N":
+                    visitor.visitName((String) cursor.nextArg());
+                    break;
+
+                case "$S":
+                    visitor.visitString((String) cursor.nextArg());
+                    break;
+
+                case "$T":
+                    ((TypeName) cursor.nextArg()).accept(visitor);
+                    break;
+
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Returns a visitor that fails if a spec holds a {@link #streamOnce} block, which rendering the
+     * spec for {@code operation} would consume before it is written.
+     */
+    static SpecVisitor rejectingStreamOnce(final String operation) {
+        return new SpecVisitor() {
+            @Override
+            public void visitLiteral(Object literal) {
+                checkArgument(!(literal instanceof Stream) || ((Stream) literal).blocks != null,
+                        "%s renders specs, which would consume a CodeBlock.streamOnce() block; "
+                                + "use CodeBlock.stream() instead", operation);
+            }
+        };
+    }
+
+    /**
+     * Visits a {@code $L} argument. The content of streams and lazy blocks is visited as if it had been
+     * added directly, except for the blocks of a {@link #streamOnce} stream, which would be consumed.
+     */
+    private static void acceptLiteral(SpecVisitor visitor, Object literal) {
+        if (literal instanceof TypeSpec) {
+            ((TypeSpec) literal).accept(visitor);
+        } else if (literal instanceof AnnotationSpec) {
+            ((AnnotationSpec) literal).accept(visitor);
+        } else if (literal instanceof CodeBlock) {
+            ((CodeBlock) literal).accept(visitor);
+        } else if (literal instanceof Stream) {
+            ((Stream) literal).accept(visitor);
+        } else if (literal instanceof Lazy) {
+            ((Lazy) literal).get().accept(visitor);
+        } else {
+            visitor.visitLiteral(literal);
+        }
+    }
+
+    /**
+     * A {@code $L} argument that emits a sequence of blocks, for {@link #stream} and {@link
+     * #streamOnce}.
+     */
+    static final class Stream {
+        final Iterable<CodeBlock> blocks;
+        private final List<TypeName> referencedTypes;
+        private Iterator<CodeBlock> iterator;
+
+        private Stream(Iterable<CodeBlock> blocks, Iterator<CodeBlock> iterator,
+                       List<TypeName> referencedTypes) {
+            this.blocks = blocks;
+            this.iterator = iterator;
+            this.referencedTypes = referencedTypes;
+        }
+
+        void emit(CodeWriter codeWriter) throws IOException {
+            if (blocks != null) {
+                for (CodeBlock block : blocks) {
+                    codeWriter.emit(block);
+                }
+                return;
+            }
+            if (codeWriter.importPass) {
+                for (TypeName type : referencedTypes) {
+                    codeWriter.emit("$T", type);
+                }
+                return;
+            }
+            Iterator<CodeBlock> remaining;
+            synchronized (this) {
+                remaining = iterator;
+                iterator = null;
+            }
+            checkState(remaining != null, "a stream of code blocks can be emitted only once");
+            while (remaining.hasNext()) {
+                codeWriter.emit(remaining.next());
+            }
+        }
+
+        void accept(SpecVisitor visitor) {
+            visitor.visitLiteral(this);
+            for (TypeName type : referencedTypes) {
+                type.accept(visitor);
+            }
+            if (blocks != null) {
+                for (CodeBlock block : blocks) {
+                    block.accept(visitor);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return blocks != null ? "stream" : "stream once";
+        }
+    }
+
+    /**
+     * A {@code $L} argument that builds its block on demand, for {@link #lazy}.
+     */
+    static final class Lazy {
+        private final Supplier<CodeBlock> supplier;
+
+        private Lazy(Supplier<CodeBlock> supplier) {
+            this.supplier = supplier;
+        }
+
+        CodeBlock get() {
+            CodeBlock block = supplier.get();
+            checkState(block != null, "a lazy block's supplier returned null");
+            return block;
+        }
+
+        @Override
+        public String toString() {
+            return "lazy";
+        }
+    }
+
+    /**
+     * Accumulates blocks for {@link #join} and {@link #joining}. Merging hands the other joiner's
+     * parts to this one as a single nested block, so combining partial results is O(1).
+     */
+    private static final class Joiner {
+        private final String separator;
+        private final Builder builder = new Builder();
+        private boolean empty = true;
+
+        Joiner(String separator) {
+            this.separator = separator;
+        }
+
+        void add(CodeBlock codeBlock) {
+            if (!empty) builder.addVerbatim(separator);
+            builder.add(codeBlock);
+            empty = false;
+        }
+
+        Joiner merge(Joiner other) {
+            if (other.empty) return this;
+            if (empty) return other;
+            builder.addVerbatim(separator);
+            builder.add(other.builder.buildShared());
+            return this;
+        }
+
+        CodeBlock join(String prefix, String suffix) {
+            if (prefix.isEmpty() && suffix.isEmpty()) return builder.buildShared();
+            return new Builder()
+                    .addVerbatim(prefix)
+                    .add(builder.buildShared())
+                    .addVerbatim(suffix)
+                    .build();
+        }
+    }
+
+    /**
+     * Iterates the format parts of a code block as if nested blocks had been copied into it. Nested
+     * blocks are tracked on an explicit stack, so arbitrarily deep nesting is fine.
+     */
+    static final class Cursor {
+        private final List<Frame> parents = new ArrayList<>();
+        private Frame frame;
+
+        private Cursor(CodeBlock codeBlock) {
+            this.frame = new Frame(codeBlock);
+        }
+
+        /**
+         * Returns the next format part, or null if there are no more parts.
+         */
+        String next() {
+            while (true) {
+                if (frame.part < frame.block.formatParts.size()) {
+                    String part = frame.block.formatParts.get(frame.part++);
+                    if (!part.equals(NESTED_BLOCK)) return part;
+                    CodeBlock child = (CodeBlock) frame.block.args.get(frame.arg++);
+                    parents.add(frame);
+                    frame = new Frame(child);
+                } else if (!parents.isEmpty()) {
+                    frame = parents.remove(parents.size() - 1);
+                } else {
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * Returns the argument of the part most recently returned by {@link #next}.
+         */
+        Object nextArg() {
+            return frame.block.args.get(frame.arg++);
+        }
+
+        /**
+         * Returns the part that {@link #next} will return, without consuming it.
+         */
+        String peek() {
+            CodeBlock block = frame.block;
+            int part = frame.part;
+            int arg = frame.arg;
+            int depth = parents.size();
+            while (true) {
+                if (part < block.formatParts.size()) {
+                    String result = block.formatParts.get(part);
+                    if (!result.equals(NESTED_BLOCK)) return result;
+                    block = (CodeBlock) block.args.get(arg);
+                    part = 0;
+                    arg = 0;
+                } else if (depth > 0) {
+                    Frame parent = parents.get(--depth);
+                    block = parent.block;
+                    part = parent.part;
+                    arg = parent.arg;
+                } else {
+                    return null;
+                }
+            }
+        }
+
+        private static final class Frame {
+            final CodeBlock block;
+            int part;
+            int arg;
+
+            Frame(CodeBlock block) {
+                this.block = block;
+            }
+        }
+    }
+
     public static final class Builder {
         final List<String> formatParts = new ArrayList<>();
         final List<Object> args = new ArrayList<>();
@@ -366,8 +780,15 @@ public final class CodeBlock {
         }
 
         public Builder add(CodeBlock codeBlock) {
-            formatParts.addAll(codeBlock.formatParts);
-            args.addAll(codeBlock.args);
+            if (codeBlock.formatParts.size() <= INLINE_LIMIT) {
+                formatParts.addAll(codeBlock.formatParts);
+                args.addAll(codeBlock.args);
+            } else {
+                // Reference large blocks rather than copying them so that nested bodies build in
+                // linear time. CodeWriter walks into the child when emitting.
+                formatParts.add(NESTED_BLOCK);
+                args.add(codeBlock);
+            }
             return this;
         }
 
@@ -376,6 +797,24 @@ public final class CodeBlock {
             return this;
         }
 
+        /**
+         * Adds {@code text} as a literal, so that dollar signs in it are not placeholders.
+         */
+        private Builder addVerbatim(String text) {
+            if (!text.isEmpty()) {
+                formatParts.add("$L");
+                args.add(text);
+            }
+            return this;
+        }
+
+        /**
+         * Builds a block backed by this builder's lists. The builder must not be used afterwards.
+         */
+        private CodeBlock buildShared() {
+            return new CodeBlock(formatParts, args);
+        }
+
         public Builder unindent() {
             this.formatParts.add("$<");
             return this;
@@ -18,6 +18,7 @@ package com.flipkart.typescriptpoet;
 import javax.lang.model.SourceVersion;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 
 import static com.flipkart.typescriptpoet.Util.*;
 
@@ -31,7 +32,7 @@ final class CodeWriter {
      */
     private static final String NO_PACKAGE = "";
 
-    private final String indent;
+    final String indent;
     private final LineWrapper out;
     private final List<TypeSpec> typeSpecStack = new ArrayList<>();
     private final Set<String> staticImportClassNames;
@@ -44,6 +45,30 @@ final class CodeWriter {
      * is -1 when the currently-written line isn't part of a statement.
      */
     int statementLine = -1;
+    /**
+     * When non-null, the members of the outermost type are rendered concurrently on this executor.
+     * Forks never have one, so nested types render on the thread that renders their parent.
+     */
+    ExecutorService memberExecutor;
+    /**
+     * The names of the top-level types declared by the file being written. They resolve without
+     * imports from anywhere in the file.
+     */
+    Set<String> fileTypeNames = Collections.emptySet();
+    /**
+     * Classes that were moved by {@linkplain TypeScriptFile#split splitting} a file, to the classes
+     * that replace them. Classes nested in a moved class move along with it.
+     */
+    Map<ClassName, ClassName> relocations = Collections.emptyMap();
+    /**
+     * True to emit {@code $S} strings that span several lines as template literals.
+     */
+    boolean templateLiterals;
+    /**
+     * True while collecting imports: the output is discarded, so blocks that can be emitted only once
+     * are skipped.
+     */
+    boolean importPass;
     private int indentLevel;
     private boolean tsDoc = false;
     private boolean comment = false;
@@ -206,37 +231,40 @@ final class CodeWriter {
     }
 
     public CodeWriter emit(CodeBlock codeBlock) throws IOException {
-        int a = 0;
         ClassName deferredTypeName = null; // used by "import static" logic
-        ListIterator<String> partIterator = codeBlock.formatParts.listIterator();
-        while (partIterator.hasNext()) {
-            String part = partIterator.next();
+        CodeBlock.Cursor cursor = codeBlock.cursor();
+        for (String part; (part = cursor.next()) != null; ) {
             switch (part) {
                 case "$L":
-                    emitLiteral(codeBlock.args.get(a++));
+                    emitLiteral(cursor.nextArg());
                     break;
 
                 case "$N":
-                    emitAndIndent((String) codeBlock.args.get(a++));
+                    emitAndIndent((String) cursor.nextArg());
                     break;
 
                 case "$S":
-                    String string = (String) codeBlock.args.get(a++);
+                    String string = (String) cursor.nextArg();
                     // Emit null as a literal null: no quotes.
-                    emitAndIndent(string != null
-                            ? stringLiteralWithDoubleQuotes(string, indent)
-                            : "null");
+                    if (string == null) {
+                        emitAndIndent("null");
+                    } else if (templateLiterals && string.indexOf('\n') != -1) {
+                        emitVerbatim(templateLiteral(string));
+                    } else {
+                        emitAndIndent(stringLiteralWithDoubleQuotes(string, indent));
+                    }
                     break;
 
                 case "$T":
-                    TypeName typeName = (TypeName) codeBlock.args.get(a++);
+                    TypeName typeName = (TypeName) cursor.nextArg();
                     if (typeName.isAnnotated()) {
                         typeName.emitAnnotations(this);
                         typeName = typeName.withoutAnnotations();
                     }
                     // defer "typeName.emit(this)" if next format part will be handled by the default case
-                    if (typeName instanceof ClassName && partIterator.hasNext()) {
-                        if (!codeBlock.formatParts.get(partIterator.nextIndex()).startsWith("$")) {
+                    String nextPart = cursor.peek();
+                    if (typeName instanceof ClassName && nextPart != null) {
+                        if (!nextPart.startsWith("$")) {
                             ClassName candidate = (ClassName) typeName;
                             if (staticImportClassNames.contains(candidate.canonicalName)) {
                                 checkState(deferredTypeName == null, "pending type for static import?!");
@@ -326,6 +354,16 @@ final class CodeWriter {
         } else if (o instanceof CodeBlock) {
             CodeBlock codeBlock = (CodeBlock) o;
             emit(codeBlock);
+        } else if (o instanceof DataLiteral) {
+            ((DataLiteral) o).emit(this);
+        } else if (o instanceof OffHeapContent) {
+            ((OffHeapContent) o).emit(this);
+        } else if (o instanceof EmbeddedContent) {
+            ((EmbeddedContent) o).emit(this);
+        } else if (o instanceof CodeBlock.Stream) {
+            ((CodeBlock.Stream) o).emit(this);
+        } else if (o instanceof CodeBlock.Lazy) {
+            emit(((CodeBlock.Lazy) o).get());
         } else {
             emitAndIndent(String.valueOf(o));
         }
@@ -337,6 +375,8 @@ final class CodeWriter {
      * names visible due to inheritance.
      */
     String lookupName(ClassName className) {
+        className = relocate(className);
+
         // Find the shortest suffix of className that resolves to className. This uses both local type
         // names (so `Entry` in `Map` refers to `Map.Entry`). Also uses imports.
         boolean nameResolved = false;
@@ -364,6 +404,23 @@ final class CodeWriter {
         return className.canonicalName;
     }
 
+    private ClassName relocate(ClassName className) {
+        if (relocations.isEmpty()) return className;
+        List<String> nestedNames = new ArrayList<>();
+        ClassName unannotated = (ClassName) className.withoutAnnotations();
+        for (ClassName c = unannotated; c != null; c = c.enclosingClassName()) {
+            ClassName target = relocations.get(c);
+            if (target != null) {
+                for (int i = nestedNames.size() - 1; i >= 0; i--) {
+                    target = target.nestedClass(nestedNames.get(i));
+                }
+                return relocate(target);
+            }
+            nestedNames.add(c.simpleName());
+        }
+        return className;
+    }
+
     private void importableType(ClassName className) {
         if (className.packageName().isEmpty()) {
             return;
@@ -397,6 +454,9 @@ final class CodeWriter {
             return ClassName.get(packageName, simpleName);
         }
 
+        // Match another top-level type of this file.
+        if (fileTypeNames.contains(simpleName)) return ClassName.get(packageName, simpleName);
+
         // Match an imported type.
         ClassName importedType = importedTypes.get(simpleName);
         if (importedType != null) return importedType;
@@ -459,12 +519,74 @@ final class CodeWriter {
         return this;
     }
 
+    /**
+     * Emits {@code s} at the current position. Unlike {@link #emitAndIndent}, lines after the first
+     * are written as they are, so literals that span several lines keep their content.
+     */
+    private void emitVerbatim(String s) throws IOException {
+        int firstNewline = s.indexOf('\n');
+        if (firstNewline == -1) {
+            emitAndIndent(s);
+            return;
+        }
+        emitAndIndent(s.substring(0, firstNewline));
+        emitRaw(s.substring(firstNewline));
+    }
+
+    /**
+     * Emits {@code s} at the current position without indenting any of its lines.
+     */
+    void emitRaw(String s) throws IOException {
+        if (s.isEmpty()) return;
+        out.append(s);
+        trailingNewline = s.charAt(s.length() - 1) == '\n';
+    }
+
     private void emitIndentation() throws IOException {
         for (int j = 0; j < indentLevel; j++) {
             out.append(indent);
         }
     }
 
+    /**
+     * Returns a writer that renders into {@code out} from the current position of this writer: same
+     * imports, package, enclosing types and indentation. The current line must be empty.
+     */
+    CodeWriter fork(Appendable out) {
+        CodeWriter fork = new CodeWriter(out, indent, importedTypes, staticImports);
+        fork.typeSpecStack.addAll(typeSpecStack);
+        fork.packageName = packageName;
+        fork.fileTypeNames = fileTypeNames;
+        fork.relocations = relocations;
+        fork.templateLiterals = templateLiterals;
+        fork.importPass = importPass;
+        fork.indentLevel = indentLevel;
+        fork.trailingNewline = trailingNewline;
+        return fork;
+    }
+
+    /**
+     * Appends {@code rendered}, which {@code fork} produced, as if this writer had written it.
+     */
+    void emitFork(CodeWriter fork, String rendered) throws IOException {
+        checkState(fork.indentLevel == indentLevel && fork.statementLine == -1,
+                "fork did not restore indentation");
+        out.append(rendered);
+        trailingNewline = fork.trailingNewline;
+        for (Map.Entry<String, ClassName> entry : fork.importableTypes.entrySet()) {
+            if (!importableTypes.containsKey(entry.getKey())) {
+                importableTypes.put(entry.getKey(), entry.getValue()); // Prefer the first inserted.
+            }
+        }
+    }
+
+    /**
+     * Flushes any text held back for line wrapping.
+     */
+    void close() throws IOException {
+        out.close();
+    }
+
     /**
      * Returns the types that should have been imported for this code. If there were any simple name
      * collisions, that type's first use is imported.
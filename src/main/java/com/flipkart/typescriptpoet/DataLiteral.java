@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2018 Flipkart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flipkart.typescriptpoet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import static com.flipkart.typescriptpoet.Util.checkArgument;
+import static com.flipkart.typescriptpoet.Util.checkNotNull;
+import static com.flipkart.typescriptpoet.Util.stringLiteralWithDoubleQuotes;
+
+/**
+ * An array or object literal of constant data, for use as a {@code $L} argument. The literal holds
+ * the primitive array it was created from and renders it directly, a fixed number of elements per
+ * line, so tables with millions of values are neither boxed nor stored as format arguments.
+ * <p>
+ * <p>The arrays are not copied; don't modify them while the literal is in use.
+ */
+public final class DataLiteral {
+    private static final int INT = 0;
+    private static final int LONG = 1;
+    private static final int DOUBLE = 2;
+    private static final int STRING = 3;
+
+    private final int[] keys;
+    private final Object values;
+    private final int kind;
+    private final int size;
+    private final int perLine;
+
+    private DataLiteral(int[] keys, Object values, int kind, int size, int perLine) {
+        checkArgument(keys == null || keys.length == size,
+                "%s keys for %s values", keys != null ? keys.length : 0, size);
+        checkArgument(perLine > 0, "perLine <= 0: %s", perLine);
+        this.keys = keys;
+        this.values = values;
+        this.kind = kind;
+        this.size = size;
+        this.perLine = perLine;
+    }
+
+    /**
+     * Returns an array literal like {@code [1, 2, 3]}, with 16 elements per line.
+     */
+    public static DataLiteral of(int[] values) {
+        return new DataLiteral(null, checkNotNull(values, "values == null"), INT, values.length, 16);
+    }
+
+    /**
+     * Returns an array literal of {@code values}, with 16 elements per line. Values beyond 2^53 lose
+     * precision in TypeScript, as they would if emitted any other way.
+     */
+    public static DataLiteral of(long[] values) {
+        return new DataLiteral(null, checkNotNull(values, "values == null"), LONG, values.length, 16);
+    }
+
+    /**
+     * Returns an array literal of {@code values}, with 16 elements per line.
+     */
+    public static DataLiteral of(double[] values) {
+        return new DataLiteral(null, checkNotNull(values, "values == null"), DOUBLE, values.length, 16);
+    }
+
+    /**
+     * Returns an object literal mapping each of {@code keys} to the value at the same index, like
+     * <code>{ 200: 1, 404: 2 }</code>, with one entry per line.
+     */
+    public static DataLiteral map(int[] keys, int[] values) {
+        checkNotNull(keys, "keys == null");
+        return new DataLiteral(keys, checkNotNull(values, "values == null"), INT, values.length, 1);
+    }
+
+    /**
+     * Returns an object literal mapping each of {@code keys} to the value at the same index, with one
+     * entry per line.
+     */
+    public static DataLiteral map(int[] keys, double[] values) {
+        checkNotNull(keys, "keys == null");
+        return new DataLiteral(keys, checkNotNull(values, "values == null"), DOUBLE, values.length, 1);
+    }
+
+    /**
+     * Returns an object literal mapping each of {@code keys} to the string at the same index, like
+     * <code>{ 200: "OK", 404: "Not Found" }</code>, with one entry per line. Null strings are
+     * emitted as {@code null}.
+     */
+    public static DataLiteral map(int[] keys, String[] values) {
+        checkNotNull(keys, "keys == null");
+        return new DataLiteral(keys, checkNotNull(values, "values == null"), STRING, values.length, 1);
+    }
+
+    /**
+     * Returns a copy of this literal that emits {@code perLine} elements or entries on each line.
+     */
+    public DataLiteral perLine(int perLine) {
+        return new DataLiteral(keys, values, kind, size, perLine);
+    }
+
+    void emit(CodeWriter codeWriter) throws IOException {
+        String open = keys != null ? "{" : "[";
+        String close = keys != null ? "}" : "]";
+        if (size == 0) {
+            codeWriter.emitAndIndent(open + close);
+            return;
+        }
+
+        // Lines are indented once inside the brackets, even within a multiple-line statement.
+        int previousStatementLine = codeWriter.statementLine;
+        codeWriter.statementLine = -1;
+        try {
+            codeWriter.emitAndIndent(open + "\n");
+            codeWriter.indent();
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < size; i++) {
+                if (keys != null) {
+                    // A negative number is not a valid property name; its string form is.
+                    if (keys[i] < 0) {
+                        line.append('"').append(keys[i]).append("\": ");
+                    } else {
+                        line.append(keys[i]).append(": ");
+                    }
+                }
+                switch (kind) {
+                    case INT:
+                        line.append(((int[]) values)[i]);
+                        break;
+                    case LONG:
+                        line.append(((long[]) values)[i]);
+                        break;
+                    case DOUBLE:
+                        line.append(((double[]) values)[i]);
+                        break;
+                    default:
+                        String value = ((String[]) values)[i];
+                        line.append(value != null
+                                ? stringLiteralWithDoubleQuotes(value, codeWriter.indent)
+                                : "null");
+                }
+                if (i + 1 == size) {
+                    line.append('\n');
+                } else if ((i + 1) % perLine == 0) {
+                    line.append(",\n");
+                } else {
+                    line.append(", ");
+                    continue;
+                }
+                codeWriter.emitAndIndent(line.toString());
+                line.setLength(0);
+            }
+            codeWriter.unindent();
+            codeWriter.emitAndIndent(close);
+        } finally {
+            codeWriter.statementLine = previousStatementLine;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null) return false;
+        if (getClass() != o.getClass()) return false;
+        return toString().equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        try {
+            emit(new CodeWriter(out));
+            return out.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
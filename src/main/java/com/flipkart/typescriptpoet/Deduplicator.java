@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018 Flipkart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flipkart.typescriptpoet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.flipkart.typescriptpoet.Util.checkNotNull;
+
+/**
+ * Replaces structurally identical declarations in a batch of files with re-exports of a single
+ * shared declaration.
+ * <p>
+ * <p>Two exported types are identical if they render to the same text once their names are set
+ * aside. References to other classes compare by their fully qualified names, so copies that refer
+ * to themselves by name are never identical. Types that are not exported are left alone because
+ * nothing can import them.
+ */
+public final class Deduplicator {
+    private static final String PLACEHOLDER_NAME = "Declaration";
+
+    private Deduplicator() {
+    }
+
+    /**
+     * Returns {@code files} with every group of identical declarations replaced by re-exports of one
+     * shared declaration in {@code sharedPackage}. If a member of the group already lives in {@code
+     * sharedPackage} it becomes the shared declaration; otherwise a shared file named after the
+     * first member is appended to the result. Files keep their order.
+     */
+    public static List<TypeScriptFile> deduplicate(List<TypeScriptFile> files, String sharedPackage) {
+        checkNotNull(files, "files == null");
+        checkNotNull(sharedPackage, "sharedPackage == null");
+
+        Set<String> sharedPackageNames = new HashSet<>();
+        Map<ByteBuffer, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            TypeScriptFile file = files.get(i);
+            if (file.packageName.equals(sharedPackage)) sharedPackageNames.add(file.fileName);
+            if (!file.declaresSingleType() || !file.typeSpec.hasModifier(Modifier.EXPORT)) continue;
+            file.typeSpec.accept(CodeBlock.rejectingStreamOnce("Deduplication"));
+
+            ByteBuffer fingerprint = ByteBuffer.wrap(Util.sha256(
+                    file.typeSpec.toBuilder(PLACEHOLDER_NAME).build().toString()));
+            List<Integer> group = groups.get(fingerprint);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(fingerprint, group);
+            }
+            group.add(i);
+        }
+
+        List<TypeScriptFile> result = new ArrayList<>(files);
+        for (List<Integer> group : groups.values()) {
+            if (group.size() < 2) continue;
+
+            TypeScriptFile shared = null;
+            for (int i : group) {
+                if (files.get(i).packageName.equals(sharedPackage)) {
+                    shared = files.get(i);
+                    break;
+                }
+            }
+            if (shared == null) {
+                TypeScriptFile first = files.get(group.get(0));
+                String name = first.fileName;
+                for (int suffix = 2; !sharedPackageNames.add(name); suffix++) {
+                    name = first.fileName + "_" + suffix;
+                }
+                shared = first.toBuilder(sharedPackage, name, null)
+                        .addType(first.typeSpec.toBuilder(name).build())
+                        .build();
+                result.add(shared);
+            }
+
+            ClassName sharedClass = ClassName.get(shared.packageName, shared.typeSpec.name);
+            for (int i : group) {
+                TypeScriptFile file = files.get(i);
+                if (file == shared) continue;
+                result.set(i, file.toBuilder(file.packageName, file.fileName, sharedClass).build());
+            }
+        }
+        return result;
+    }
+}
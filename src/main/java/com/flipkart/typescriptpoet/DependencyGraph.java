@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2018 Flipkart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flipkart.typescriptpoet;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.flipkart.typescriptpoet.Util.checkArgument;
+import static com.flipkart.typescriptpoet.Util.checkNotNull;
+
+/**
+ * An index of the classes that generated files reference, for regenerating only what changed.
+ * <p>
+ * <p>Each file is identified by the class name made of its package and file name, which is the
+ * top-level class it declares unless it declares several. The graph records the top-level classes
+ * each file references, the files that reference each class, and a fingerprint of each file's
+ * text.
+ * <p>
+ * <p>A file's text depends only on its own specs and on the names and modules of the classes it
+ * references.
+ * When model classes change, rebuild the specs of the {@linkplain #affectedBy affected} files,
+ * {@linkplain #update update} the graph with them and {@linkplain #writeChanged write} only the
+ * files whose text differs from the previous graph.
+ * <p>
+ * <p>To generate only what a few API types need, build the graph from every spec and {@linkplain
+ * #writeReachable write the files reachable} from those types.
+ * <p>
+ * <p>Files are rendered and written through a {@link TypeScriptProject} of all the files of the
+ * graph, so imports resolve to the modules that declare each class, including packed modules.
+ */
+public final class DependencyGraph {
+    private static final String TYPESCRIPT_EXTENSION = ".ts";
+
+    private final Map<ClassName, Node> nodes;
+    private final Map<ClassName, ClassName> declaringFiles;
+    private final Map<ClassName, Set<ClassName>> dependents;
+    /**
+     * The fingerprint of each file's text. Texts depend on where the other files declare classes,
+     * so fingerprints belong to the graph rather than to its nodes, which graphs share.
+     */
+    private final Map<ClassName, byte[]> fingerprints = new ConcurrentHashMap<>();
+    private volatile TypeScriptProject project;
+
+    private DependencyGraph(Map<ClassName, Node> nodes) {
+        this.nodes = Collections.unmodifiableMap(nodes);
+        Map<ClassName, ClassName> declaringFiles = new HashMap<>();
+        Map<ClassName, Set<ClassName>> dependents = new TreeMap<>();
+        for (Map.Entry<ClassName, Node> entry : nodes.entrySet()) {
+            for (ClassName declared : entry.getValue().declared) {
+                declaringFiles.put(declared, entry.getKey());
+            }
+            for (ClassName reference : entry.getValue().references) {
+                Set<ClassName> files = dependents.get(reference);
+                if (files == null) {
+                    files = new TreeSet<>();
+                    dependents.put(reference, files);
+                }
+                files.add(entry.getKey());
+            }
+        }
+        this.declaringFiles = declaringFiles;
+        this.dependents = dependents;
+    }
+
+    /**
+     * Returns the graph of {@code files}. Files are rendered only when their text is first compared.
+     */
+    public static DependencyGraph of(Iterable<TypeScriptFile> files) {
+        checkNotNull(files, "files == null");
+        Map<ClassName, Node> nodes = new TreeMap<>();
+        for (TypeScriptFile file : files) {
+            ClassName declared = declaredClass(file);
+            checkArgument(nodes.put(declared, new Node(file)) == null, "duplicate file for %s", declared);
+        }
+        return new DependencyGraph(nodes);
+    }
+
+    /**
+     * Returns a copy of this graph in which {@code files} replace the files declaring the same classes,
+     * or are added if there are none. Files are rendered again when their text is first compared.
+     */
+    public DependencyGraph update(Iterable<TypeScriptFile> files) {
+        checkNotNull(files, "files == null");
+        Map<ClassName, Node> updated = new TreeMap<>(nodes);
+        Set<ClassName> seen = new TreeSet<>();
+        for (TypeScriptFile file : files) {
+            ClassName declared = declaredClass(file);
+            checkArgument(seen.add(declared), "duplicate file for %s", declared);
+            updated.put(declared, new Node(file));
+        }
+        return new DependencyGraph(updated);
+    }
+
+    /**
+     * Returns a copy of this graph without the files declaring {@code classNames}.
+     */
+    public DependencyGraph remove(Collection<ClassName> classNames) {
+        Map<ClassName, Node> updated = new TreeMap<>(nodes);
+        for (ClassName className : classNames) {
+            ClassName file = declaringFiles.get(className.topLevelClassName());
+            if (file != null) updated.remove(file);
+        }
+        return new DependencyGraph(updated);
+    }
+
+    /**
+     * Returns the classes declared by the files of this graph.
+     */
+    public Set<ClassName> files() {
+        return nodes.keySet();
+    }
+
+    /**
+     * Returns the file declaring {@code className}, or null if this graph has none.
+     */
+    public TypeScriptFile file(ClassName className) {
+        Node node = node(className);
+        return node != null ? node.file : null;
+    }
+
+    /**
+     * Returns the top-level classes referenced by the file declaring {@code className}.
+     */
+    public Set<ClassName> references(ClassName className) {
+        Node node = node(className);
+        return node != null ? node.references : Collections.<ClassName>emptySet();
+    }
+
+    /**
+     * Returns the files that reference {@code className} or any class nested in it.
+     */
+    public Set<ClassName> dependents(ClassName className) {
+        Set<ClassName> files = dependents.get(className.topLevelClassName());
+        return files != null
+                ? Collections.unmodifiableSet(files)
+                : Collections.<ClassName>emptySet();
+    }
+
+    /**
+     * Returns the files to rebuild after {@code changed} classes were modified, renamed or removed:
+     * the files declaring them and the files referencing them.
+     */
+    public Set<ClassName> affectedBy(Collection<ClassName> changed) {
+        Set<ClassName> result = new TreeSet<>();
+        for (ClassName className : changed) {
+            ClassName file = declaringFiles.get(className.topLevelClassName());
+            if (file != null) result.add(file);
+            result.addAll(dependents(className));
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Returns the files that {@code roots} transitively reference, including the files declaring
+     * {@code roots}. References are followed through supertypes, type variable bounds, members,
+     * annotations and code; classes that no file of this graph declares are not followed.
+     */
+    public Set<ClassName> reachableFrom(Collection<ClassName> roots) {
+        Set<ClassName> result = new TreeSet<>();
+        Deque<ClassName> pending = new ArrayDeque<>();
+        for (ClassName root : roots) {
+            ClassName file = declaringFiles.get(root.topLevelClassName());
+            checkArgument(file != null, "no file declares %s", root);
+            if (result.add(file)) pending.add(file);
+        }
+        while (!pending.isEmpty()) {
+            for (ClassName reference : nodes.get(pending.remove()).references) {
+                ClassName file = declaringFiles.get(reference);
+                if (file != null && result.add(file)) pending.add(file);
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Writes the files {@linkplain #reachableFrom reachable from} {@code roots} to {@code directory}
+     * and returns them. Other files are not rendered.
+     */
+    public Set<ClassName> writeReachable(Collection<ClassName> roots, Path directory)
+            throws IOException {
+        Set<ClassName> reachable = reachableFrom(roots);
+        for (ClassName className : reachable) {
+            nodes.get(className).file.writeTo(directory, TYPESCRIPT_EXTENSION, project());
+        }
+        return reachable;
+    }
+
+    /**
+     * Returns the files of this graph that are new or whose text differs from {@code previous}.
+     */
+    public Set<ClassName> changedSince(DependencyGraph previous) {
+        Set<ClassName> result = new TreeSet<>();
+        for (Map.Entry<ClassName, Node> entry : nodes.entrySet()) {
+            Node before = previous.nodes.get(entry.getKey());
+            if (before == null
+                    || !Arrays.equals(previous.fingerprint(entry.getKey()), fingerprint(entry.getKey()))) {
+                result.add(entry.getKey());
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Writes the files that {@linkplain #changedSince changed since} {@code previous} to {@code
+     * directory} and returns them.
+     */
+    public Set<ClassName> writeChanged(DependencyGraph previous, Path directory) throws IOException {
+        Set<ClassName> changed = changedSince(previous);
+        for (ClassName className : changed) {
+            nodes.get(className).file.writeTo(directory, TYPESCRIPT_EXTENSION, project());
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the project of all the files of this graph, building it on first use.
+     */
+    private TypeScriptProject project() {
+        TypeScriptProject result = project;
+        if (result == null) {
+            List<TypeScriptFile> files = new ArrayList<>(nodes.size());
+            for (Node node : nodes.values()) {
+                files.add(node.file);
+            }
+            result = TypeScriptProject.builder().addFiles(files).build();
+            project = result;
+        }
+        return result;
+    }
+
+    private byte[] fingerprint(ClassName file) {
+        byte[] result = fingerprints.get(file);
+        if (result == null) {
+            TypeScriptFile typeScriptFile = nodes.get(file).file;
+            typeScriptFile.accept(CodeBlock.rejectingStreamOnce("Comparing files"));
+            result = Util.sha256(project().render(typeScriptFile));
+            fingerprints.put(file, result);
+        }
+        return result;
+    }
+
+    private Node node(ClassName className) {
+        ClassName file = declaringFiles.get(className.topLevelClassName());
+        return file != null ? nodes.get(file) : null;
+    }
+
+    private static ClassName declaredClass(TypeScriptFile file) {
+        return ClassName.get(file.packageName, file.fileName);
+    }
+
+    private static final class Node {
+        final TypeScriptFile file;
+        final Set<ClassName> declared;
+        final Set<ClassName> references;
+
+        Node(TypeScriptFile file) {
+            this.file = file;
+            this.declared = declaredClasses(file);
+            this.references = referencedClasses(file, declared);
+        }
+
+        private static Set<ClassName> declaredClasses(TypeScriptFile file) {
+            Set<ClassName> declared = new HashSet<>();
+            declared.add(declaredClass(file));
+            for (TypeSpec typeSpec : file.typeSpecs) {
+                declared.add(ClassName.get(file.packageName, typeSpec.name));
+            }
+            return declared;
+        }
+
+        private static Set<ClassName> referencedClasses(TypeScriptFile file, Set<ClassName> declared) {
+            final Set<ClassName> references = new TreeSet<>();
+            file.accept(new SpecVisitor() {
+                @Override
+                public boolean visitDoc(CodeBlock doc) {
+                    return false; // Names in documentation are not imported.
+                }
+
+                @Override
+                public boolean visitTypeName(TypeName typeName) {
+                    if (typeName instanceof ClassName) {
+                        ClassName topLevel = ((ClassName) typeName).topLevelClassName();
+                        if (!declared.contains(topLevel)) references.add(topLevel);
+                    }
+                    return true;
+                }
+            });
+            return Collections.unmodifiableSet(references);
+        }
+    }
+}
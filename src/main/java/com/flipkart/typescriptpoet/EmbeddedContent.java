@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2018 Flipkart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flipkart.typescriptpoet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static com.flipkart.typescriptpoet.Util.checkNotNull;
+import static com.flipkart.typescriptpoet.Util.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The content of a file or stream, embedded as a string literal by a {@code $L} argument. The
+ * content is read and written in chunks of constant size when the literal is emitted, so embedding
+ * a large asset doesn't hold it in memory.
+ * <p>
+ * <p>Text is emitted as a single double-quoted string with escaped line feeds, or as a template
+ * literal spanning the same lines in files that {@linkplain TypeScriptFile.Builder#templateLiterals
+ * use template literals}. Binary content is emitted as a double-quoted base64 string.
+ */
+public final class EmbeddedContent {
+    private static final int CHUNK_SIZE = 8192;
+    private static final int BASE64_CHUNK_SIZE = 3 * 2048; // Whole groups of 3 bytes.
+
+    private final Path path;
+    private final boolean base64;
+    private InputStream stream;
+
+    private EmbeddedContent(Path path, InputStream stream, boolean base64) {
+        this.path = path;
+        this.stream = stream;
+        this.base64 = base64;
+    }
+
+    /**
+     * Embeds the UTF-8 text of {@code path}, which is read each time the literal is emitted.
+     */
+    public static EmbeddedContent text(Path path) {
+        return new EmbeddedContent(checkNotNull(path, "path == null"), null, false);
+    }
+
+    /**
+     * Embeds the UTF-8 text read from {@code stream}. The literal can be emitted only once, and
+     * closes {@code stream} when it is emitted.
+     */
+    public static EmbeddedContent text(InputStream stream) {
+        return new EmbeddedContent(null, checkNotNull(stream, "stream == null"), false);
+    }
+
+    /**
+     * Embeds the bytes of {@code path} in base64, reading them each time the literal is emitted.
+     */
+    public static EmbeddedContent base64(Path path) {
+        return new EmbeddedContent(checkNotNull(path, "path == null"), null, true);
+    }
+
+    /**
+     * Embeds the bytes read from {@code stream} in base64. The literal can be emitted only once, and
+     * closes {@code stream} when it is emitted.
+     */
+    public static EmbeddedContent base64(InputStream stream) {
+        return new EmbeddedContent(null, checkNotNull(stream, "stream == null"), true);
+    }
+
+    void emit(CodeWriter codeWriter) throws IOException {
+        if (codeWriter.importPass) return; // The content has no imports, and a stream is read once.
+
+        InputStream in;
+        if (path != null) {
+            in = Files.newInputStream(path);
+        } else {
+            synchronized (this) {
+                in = stream;
+                stream = null;
+            }
+            checkState(in != null, "an embedded stream can be emitted only once");
+        }
+        try {
+            if (base64) {
+                emitBase64(codeWriter, in);
+            } else {
+                emitText(codeWriter, in);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void emitText(CodeWriter codeWriter, InputStream in) throws IOException {
+        boolean template = codeWriter.templateLiterals;
+        String quote = template ? "`" : "\"";
+        codeWriter.emitAndIndent(quote);
+        Reader reader = new InputStreamReader(in, UTF_8);
+        char[] chars = new char[CHUNK_SIZE];
+        StringBuilder escaped = new StringBuilder(CHUNK_SIZE + 64);
+        for (int count; (count = reader.read(chars)) != -1; ) {
+            Util.appendEscaped(escaped, chars, count, template);
+            codeWriter.emitRaw(escaped.toString());
+            escaped.setLength(0);
+        }
+        codeWriter.emitRaw(quote);
+    }
+
+    private static void emitBase64(CodeWriter codeWriter, InputStream in) throws IOException {
+        Base64.Encoder encoder = Base64.getEncoder();
+        codeWriter.emitAndIndent("\"");
+        byte[] bytes = new byte[BASE64_CHUNK_SIZE];
+        for (int count; (count = readFully(in, bytes)) > 0; ) {
+            byte[] chunk = count == bytes.length ? bytes : Arrays.copyOf(bytes, count);
+            codeWriter.emitRaw(new String(encoder.encode(chunk), UTF_8));
+        }
+        codeWriter.emitRaw("\"");
+    }
+
+    /**
+     * Fills {@code bytes} from {@code in}, unless it ends first, and returns the number of bytes read.
+     */
+    private static int readFully(InputStream in, byte[] bytes) throws IOException {
+        int count = 0;
+        for (int read; count < bytes.length && (read = in.read(bytes, count, bytes.length - count)) != -1; ) {
+            count += read;
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return (base64 ? "base64 of " : "text of ") + (path != null ? path : "a stream");
+    }
+}
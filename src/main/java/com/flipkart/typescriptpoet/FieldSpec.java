@@ -16,6 +16,7 @@
 package com.flipkart.typescriptpoet;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -64,10 +65,18 @@ public final class FieldSpec {
     }
 
     void emit(CodeWriter codeWriter, Set<Modifier> implicitModifiers) throws IOException {
+        emit(codeWriter, implicitModifiers, false);
+    }
+
+    /**
+     * Emits this field. Mutable top-level fields are declared with {@code let}.
+     */
+    void emit(CodeWriter codeWriter, Set<Modifier> implicitModifiers, boolean topLevel)
+            throws IOException {
         codeWriter.emitJavadoc(typescriptDoc);
         codeWriter.emitAnnotations(annotations, false);
         codeWriter.emitModifiers(modifiers, implicitModifiers);
-        String codeArg = !isMutable ? "const $L" : "$L";
+        String codeArg = !isMutable ? "const $L" : topLevel ? "let $L" : "$L";
         codeArg = isOptional ? codeArg + "?" : codeArg;
         codeWriter.emit(codeArg + ": $T", name, type);
         if (!initializer.isEmpty()) {
@@ -77,6 +86,19 @@ public final class FieldSpec {
         codeWriter.emit(";\n");
     }
 
+    /**
+     * Visits this field with {@code visitor}: its documentation, annotations, type and initializer.
+     */
+    public void accept(SpecVisitor visitor) {
+        if (!visitor.visitField(this)) return;
+        if (visitor.visitDoc(typescriptDoc)) typescriptDoc.accept(visitor);
+        for (AnnotationSpec annotation : annotations) {
+            annotation.accept(visitor);
+        }
+        type.accept(visitor);
+        initializer.accept(visitor);
+    }
+
     @Override
     public boolean equals(Object o) {
         return this == o || o != null && getClass() == o.getClass() && toString().equals(o.toString());
@@ -95,7 +117,7 @@ public final class FieldSpec {
             emit(codeWriter, Collections.<Modifier>emptySet());
             return out.toString();
         } catch (IOException e) {
-            throw new AssertionError();
+            throw new UncheckedIOException(e);
         }
     }
 
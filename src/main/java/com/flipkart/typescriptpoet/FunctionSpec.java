@@ -17,6 +17,7 @@ package com.flipkart.typescriptpoet;
 
 import javax.lang.model.SourceVersion;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
 import java.util.*;
 
@@ -72,19 +73,33 @@ public final class FunctionSpec {
 
     void emit(CodeWriter codeWriter, String enclosingName, Set<Modifier> implicitModifiers)
             throws IOException {
+        emit(codeWriter, implicitModifiers, false);
+    }
+
+    /**
+     * Emits this function. Top-level functions are declared with {@code function}.
+     */
+    void emit(CodeWriter codeWriter, Set<Modifier> implicitModifiers, boolean topLevel)
+            throws IOException {
         codeWriter.emitJavadoc(javadoc);
         codeWriter.emitAnnotations(annotations, false);
         codeWriter.emitModifiers(modifiers, implicitModifiers);
 
-        if (!typeVariables.isEmpty()) {
+        if (topLevel) {
+            codeWriter.emit("function $L", name);
             codeWriter.emitTypeVariables(typeVariables);
-            codeWriter.emit(" ");
-        }
-
-        if (isConstructor()) {
-            codeWriter.emit("$L(", CONSTRUCTOR);
+            codeWriter.emit("(");
         } else {
-            codeWriter.emit("$L(", name);
+            if (!typeVariables.isEmpty()) {
+                codeWriter.emitTypeVariables(typeVariables);
+                codeWriter.emit(" ");
+            }
+
+            if (isConstructor()) {
+                codeWriter.emit("$L(", CONSTRUCTOR);
+            } else {
+                codeWriter.emit("$L(", name);
+            }
         }
 
         boolean firstParameter = true;
@@ -129,6 +144,30 @@ public final class FunctionSpec {
         }
     }
 
+    /**
+     * Visits this function with {@code visitor}: its documentation, annotations, type variables,
+     * parameters, return type, default value, exceptions and code.
+     */
+    public void accept(SpecVisitor visitor) {
+        if (!visitor.visitFunction(this)) return;
+        if (visitor.visitDoc(javadoc)) javadoc.accept(visitor);
+        for (AnnotationSpec annotation : annotations) {
+            annotation.accept(visitor);
+        }
+        for (TypeVariableName typeVariable : typeVariables) {
+            typeVariable.acceptDeclaration(visitor);
+        }
+        for (ParameterSpec parameter : parameters) {
+            parameter.accept(visitor);
+        }
+        if (returnType != null && !isConstructor()) returnType.accept(visitor);
+        if (defaultValue != null) defaultValue.accept(visitor);
+        for (TypeName exception : exceptions) {
+            exception.accept(visitor);
+        }
+        code.accept(visitor);
+    }
+
     boolean hasModifier(Modifier modifier) {
         return modifiers.contains(modifier);
     }
@@ -158,7 +197,7 @@ public final class FunctionSpec {
             emit(codeWriter, "Constructor", Collections.<Modifier>emptySet());
             return out.toString();
         } catch (IOException e) {
-            throw new AssertionError();
+            throw new UncheckedIOException(e);
         }
     }
 
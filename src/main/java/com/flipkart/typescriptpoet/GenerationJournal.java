@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2018 Flipkart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flipkart.typescriptpoet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.flipkart.typescriptpoet.Util.checkArgument;
+import static com.flipkart.typescriptpoet.Util.checkNotNull;
+import static com.flipkart.typescriptpoet.Util.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * An append-only record of the files a batch has finished writing, so that a run that failed part
+ * way can be resumed by {@linkplain TypeScriptProject#writeTo(Path, String, GenerationJournal)
+ * writing the project again} with the same journal.
+ * <p>
+ * <p>The journal is a text file. Its first line is the run id, and every other line holds the
+ * SHA-256 of a written file and its path: {@code "<hex digest> <path>\n"}. A file counts as complete
+ * only while its content still has the recorded digest, so the journal needs no syncing: an entry
+ * that outlives its file after a crash is simply written again. A torn last line is discarded.
+ * <p>
+ * <p>Files are skipped without being rendered, so a journal is only valid for one set of specs. Use
+ * a run id that identifies them, like a model version: opening a journal with a different run id
+ * starts it over. Delete the journal once the run succeeds.
+ */
+public final class GenerationJournal implements Closeable {
+    private static final int DIGEST_LENGTH = 32;
+
+    private final FileChannel channel;
+    private final Map<String, byte[]> completed;
+
+    private GenerationJournal(FileChannel channel, Map<String, byte[]> completed) {
+        this.channel = channel;
+        this.completed = completed;
+    }
+
+    /**
+     * Opens the journal at {@code file} for {@code runId}, creating it if it doesn't exist.
+     */
+    public static GenerationJournal open(Path file, String runId) throws IOException {
+        checkNotNull(file, "file == null");
+        checkArgument(runId != null && runId.indexOf('\n') == -1, "invalid runId: %s", runId);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            Map<String, byte[]> completed = new HashMap<>();
+            byte[] content = Files.readAllBytes(file);
+            String header = runId + '\n';
+            int valid = 0;
+            if (startsWith(content, header.getBytes(UTF_8))) {
+                valid = header.getBytes(UTF_8).length;
+                for (int end; (end = indexOf(content, (byte) '\n', valid)) != -1; valid = end + 1) {
+                    String line = new String(content, valid, end - valid, UTF_8);
+                    byte[] digest = line.length() > 2 * DIGEST_LENGTH + 1 && line.charAt(2 * DIGEST_LENGTH) == ' '
+                            ? parseHex(line.substring(0, 2 * DIGEST_LENGTH))
+                            : null;
+                    if (digest == null) break;
+                    completed.put(line.substring(2 * DIGEST_LENGTH + 1), digest);
+                }
+            } else {
+                channel.write(ByteBuffer.wrap(header.getBytes(UTF_8)), 0);
+                valid = header.getBytes(UTF_8).length;
+            }
+            channel.truncate(valid);
+            channel.position(valid);
+            return new GenerationJournal(channel, completed);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the paths recorded as complete.
+     */
+    public synchronized Set<String> completed() {
+        return Collections.unmodifiableSet(new TreeSet<>(completed.keySet()));
+    }
+
+    /**
+     * Returns true if the file at {@code path} in {@code directory} was recorded as complete and still
+     * has the recorded content.
+     */
+    public boolean isComplete(Path directory, String path) throws IOException {
+        byte[] digest;
+        synchronized (this) {
+            digest = completed.get(path);
+        }
+        if (digest == null) return false;
+        Path file = directory.resolve(path);
+        return Files.isRegularFile(file) && Arrays.equals(digest, Util.sha256(Files.readAllBytes(file)));
+    }
+
+    /**
+     * Records the file at {@code path} in {@code directory} as complete with its current content.
+     */
+    public void record(Path directory, String path) throws IOException {
+        checkArgument(path != null && !path.isEmpty() && path.indexOf('\n') == -1, "invalid path: %s", path);
+        byte[] digest = Util.sha256(Files.readAllBytes(directory.resolve(path)));
+        ByteBuffer line = ByteBuffer.wrap((toHex(digest) + ' ' + path + '\n').getBytes(UTF_8));
+        synchronized (this) {
+            checkState(channel.isOpen(), "journal is closed");
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            completed.put(path, digest);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns the bytes of the lowercase hex string {@code hex}, or null if it isn't one.
+     */
+    private static byte[] parseHex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high == -1 || low == -1) return null;
+            result[i] = (byte) (high << 4 | low);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018 Flipkart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flipkart.typescriptpoet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static com.flipkart.typescriptpoet.Util.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Keeps generated files in memory as UTF-8 bytes, keyed by their {@code '/'}-separated paths. Files
+ * can be read back, listed by directory, compared with an earlier generation, and later written to a
+ * directory or to another sink such as an {@link ArchiveSink}.
+ * <p>
+ * <p>Files may be opened concurrently. Writing a path again replaces its content.
+ */
+public final class MemorySink implements OutputSink {
+    private final NavigableMap<String, byte[]> files = new ConcurrentSkipListMap<>();
+
+    private MemorySink() {
+    }
+
+    public static MemorySink create() {
+        return new MemorySink();
+    }
+
+    @Override
+    public Writer openFile(String path) throws IOException {
+        Util.checkRelativePath(path);
+        return new MemoryFileWriter(path);
+    }
+
+    /**
+     * Closes {@code writer} without storing its file; an earlier version of the file is kept.
+     */
+    @Override
+    public void discard(Writer writer) throws IOException {
+        if (writer instanceof MemoryFileWriter) {
+            ((MemoryFileWriter) writer).discarded = true;
+        }
+        writer.close();
+    }
+
+    private final class MemoryFileWriter extends OutputStreamWriter {
+        private final String path;
+        private final ByteArrayOutputStream content;
+        boolean discarded;
+
+        MemoryFileWriter(String path) {
+            this(path, new ByteArrayOutputStream());
+        }
+
+        private MemoryFileWriter(String path, ByteArrayOutputStream content) {
+            super(content, UTF_8);
+            this.path = path;
+            this.content = content;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (!discarded) files.put(path, content.toByteArray());
+        }
+    }
+
+    /**
+     * Returns the paths of the files in this sink, sorted.
+     */
+    public NavigableSet<String> paths() {
+        return Collections.unmodifiableNavigableSet(files.navigableKeySet());
+    }
+
+    /**
+     * Returns the content of the file at {@code path}, or null if there is none.
+     */
+    public String read(String path) {
+        byte[] content = files.get(path);
+        return content != null ? new String(content, UTF_8) : null;
+    }
+
+    /**
+     * Returns the sorted names of the files and directories directly in {@code directory}, like
+     * {@code "com/flipkart"}; pass {@code ""} for the root. Directory names end with {@code '/'}.
+     */
+    public List<String> list(String directory) {
+        checkNotNull(directory, "directory == null");
+        String prefix = directory.isEmpty() || directory.endsWith("/") ? directory : directory + '/';
+        List<String> result = new ArrayList<>();
+        String path = files.ceilingKey(prefix);
+        while (path != null && path.startsWith(prefix)) {
+            int slash = path.indexOf('/', prefix.length());
+            if (slash == -1) {
+                result.add(path.substring(prefix.length()));
+                path = files.higherKey(path);
+            } else {
+                result.add(path.substring(prefix.length(), slash + 1));
+                // Skip the rest of the subdirectory: '0' is the character after '/'.
+                path = files.ceilingKey(path.substring(0, slash) + '0');
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the paths of the files that are new or whose content differs from {@code previous}.
+     */
+    public Set<String> changedSince(MemorySink previous) {
+        checkNotNull(previous, "previous == null");
+        Set<String> result = new TreeSet<>();
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            if (!Arrays.equals(file.getValue(), previous.files.get(file.getKey()))) {
+                result.add(file.getKey());
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Returns the paths of the files in {@code previous} that this sink doesn't have.
+     */
+    public Set<String> removedSince(MemorySink previous) {
+        checkNotNull(previous, "previous == null");
+        Set<String> result = new TreeSet<>(previous.files.keySet());
+        result.removeAll(files.keySet());
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Writes every file to {@code sink} in path order.
+     */
+    public void writeTo(OutputSink sink) throws IOException {
+        checkNotNull(sink, "sink == null");
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            String text = new String(file.getValue(), UTF_8);
+            Util.writeFile(sink, file.getKey(), writer -> writer.write(text));
+        }
+    }
+
+    /**
+     * Writes every file to {@code directory}, publishing them together once all are written.
+     */
+    public void writeTo(Path directory) throws IOException {
+        try (OutputCommitter committer = OutputCommitter.create(directory, OutputCommitter.Durability.NONE)) {
+            writeTo(committer);
+            committer.commit();
+        }
+    }
+
+    /**
+     * Does nothing: the files stay readable.
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2018 Flipkart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flipkart.typescriptpoet;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.flipkart.typescriptpoet.Util.checkNotNull;
+
+/**
+ * A canonicalizing pool for type names and identifier strings. Equal values interned through the
+ * same pool share a single instance, so models that reference the same few types from many members
+ * hold one copy of each name.
+ * <p>
+ * <p>The pool is concurrent and only weakly references its values: a canonical instance is dropped
+ * once nothing else refers to it. Interning is optional; once a pool is {@linkplain #install
+ * installed}, {@link ClassName#get}, {@link ParameterizedTypeName#get} and {@link
+ * TypeVariableName#get} return canonical instances.
+ */
+public final class NamePool {
+    private static volatile NamePool installed;
+
+    private final ConcurrentMap<Entry, Entry> entries = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+    /**
+     * Makes {@code pool} the pool consulted by the type name factories.
+     */
+    public static void install(NamePool pool) {
+        installed = checkNotNull(pool, "pool == null");
+    }
+
+    /**
+     * Stops interning in the type name factories. Canonical instances handed out so far stay valid.
+     */
+    public static void uninstall() {
+        installed = null;
+    }
+
+    /**
+     * Returns the installed pool, or null if type names are not being interned.
+     */
+    public static NamePool installed() {
+        return installed;
+    }
+
+    static <T extends TypeName> T canonical(T typeName) {
+        NamePool pool = installed;
+        return pool != null ? pool.intern(typeName) : typeName;
+    }
+
+    static String canonical(String identifier) {
+        NamePool pool = installed;
+        return pool != null ? pool.intern(identifier) : identifier;
+    }
+
+    static List<String> canonical(List<String> identifiers) {
+        NamePool pool = installed;
+        if (pool == null) return identifiers;
+        List<String> result = new ArrayList<>(identifiers.size());
+        for (String identifier : identifiers) {
+            result.add(pool.intern(identifier));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the canonical instance equal to {@code typeName}, making {@code typeName} canonical if
+     * there is none yet.
+     */
+    public <T extends TypeName> T intern(T typeName) {
+        return doIntern(checkNotNull(typeName, "typeName == null"));
+    }
+
+    /**
+     * Returns the canonical instance equal to {@code identifier}, making {@code identifier} canonical
+     * if there is none yet.
+     */
+    public String intern(String identifier) {
+        return doIntern(checkNotNull(identifier, "identifier == null"));
+    }
+
+    /**
+     * Returns the number of live canonical instances in this pool.
+     */
+    public int size() {
+        expungeStaleEntries();
+        return entries.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T doIntern(T value) {
+        expungeStaleEntries();
+        Entry entry = new Entry(value, queue);
+        while (true) {
+            Entry existing = entries.putIfAbsent(entry, entry);
+            if (existing == null) return value;
+            Object canonical = existing.get();
+            if (canonical != null) return (T) canonical;
+            // Cleared between lookup and get(); drop it and try again.
+            entries.remove(existing, existing);
+        }
+    }
+
+    private void expungeStaleEntries() {
+        for (Object stale; (stale = queue.poll()) != null; ) {
+            entries.remove(stale, stale);
+        }
+    }
+
+    private static boolean equivalent(Object a, Object b) {
+        if (a.getClass() != b.getClass()) return false;
+        return a instanceof TypeName
+                ? ((TypeName) a).internEquivalent((TypeName) b)
+                : a.equals(b);
+    }
+
+    /**
+     * A weakly referenced pool value. Live entries compare by their values; cleared entries are only
+     * equal to themselves, so they can still be removed from the map.
+     */
+    private static final class Entry extends WeakReference<Object> {
+        private final int hash;
+
+        Entry(Object value, ReferenceQueue<Object> queue) {
+            super(value, queue);
+            this.hash = value.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Entry)) return false;
+            Entry other = (Entry) o;
+            if (hash != other.hash) return false;
+            Object value = get();
+            Object otherValue = other.get();
+            return value != null && otherValue != null && equivalent(value, otherValue);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2018 Flipkart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flipkart.typescriptpoet;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static com.flipkart.typescriptpoet.Util.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The rendered text of a code block, stored as UTF-8 outside of the Java heap in direct memory or in
+ * a memory-mapped spill file. It is emitted by decoding it in chunks, for {@link CodeBlock#offHeap}.
+ */
+final class OffHeapContent {
+    private static final int CHUNK_SIZE = 8192;
+
+    private final ByteBuffer content;
+
+    private OffHeapContent(ByteBuffer content) {
+        this.content = content.asReadOnlyBuffer();
+    }
+
+    /**
+     * Renders {@code block} into direct memory, or into a spill file in {@code spillDirectory} if it
+     * is not null.
+     */
+    static OffHeapContent store(CodeBlock block, Path spillDirectory) throws IOException {
+        block.accept(new SpecVisitor() {
+            @Override
+            public boolean visitTypeName(TypeName typeName) {
+                throw new IllegalArgumentException(
+                        "off-heap blocks cannot reference types, whose names depend on the file: " + typeName);
+            }
+        });
+
+        if (spillDirectory == null) {
+            DirectBufferChannel channel = new DirectBufferChannel();
+            render(block, channel);
+            ByteBuffer content = channel.buffer;
+            content.flip();
+            return new OffHeapContent(content);
+        }
+
+        Path spillFile = Files.createTempFile(spillDirectory, "codeblock", ".spill");
+        try (FileChannel channel = FileChannel.open(spillFile,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            render(block, channel);
+            checkArgument(channel.size() <= Integer.MAX_VALUE,
+                    "off-heap blocks are limited to 2 GiB: %s bytes", channel.size());
+            return new OffHeapContent(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            try {
+                Files.delete(spillFile); // The mapping stays valid where open files can be deleted.
+            } catch (IOException e) {
+                spillFile.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    private static void render(CodeBlock block, WritableByteChannel channel) throws IOException {
+        Writer writer = Channels.newWriter(channel, UTF_8.newEncoder(), CHUNK_SIZE);
+        CodeWriter codeWriter = new CodeWriter(writer);
+        codeWriter.emit(block);
+        codeWriter.close();
+        writer.flush();
+    }
+
+    /**
+     * Returns the size of the stored text in bytes.
+     */
+    int size() {
+        return content.limit();
+    }
+
+    void emit(CodeWriter codeWriter) throws IOException {
+        ByteBuffer bytes = content.duplicate(); // An independent position for each emission.
+        CharsetDecoder decoder = UTF_8.newDecoder();
+        CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+        while (true) {
+            CoderResult result = decoder.decode(bytes, chars, true);
+            if (result.isError()) result.throwException();
+            if (chars.position() > 0) {
+                chars.flip();
+                codeWriter.emitAndIndent(chars.toString());
+                chars.clear();
+            }
+            if (result.isUnderflow()) break;
+        }
+        decoder.flush(chars);
+        chars.flip();
+        if (chars.hasRemaining()) codeWriter.emitAndIndent(chars.toString());
+    }
+
+    @Override
+    public String toString() {
+        return "off-heap block of " + size() + " bytes";
+    }
+
+    /**
+     * A channel that writes into a direct buffer, replacing it with one twice as large when it is
+     * full.
+     */
+    private static final class DirectBufferChannel implements WritableByteChannel {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+
+        @Override
+        public int write(ByteBuffer source) {
+            int count = source.remaining();
+            if (buffer.remaining() < count) {
+                long needed = (long) buffer.position() + count;
+                checkArgument(needed <= Integer.MAX_VALUE, "off-heap blocks are limited to 2 GiB");
+                int capacity = (int) Math.min(Integer.MAX_VALUE,
+                        Math.max(needed, 2L * buffer.capacity()));
+                ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+            buffer.put(source);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
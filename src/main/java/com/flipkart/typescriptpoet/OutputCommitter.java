@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2018 Flipkart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flipkart.typescriptpoet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.flipkart.typescriptpoet.Util.checkArgument;
+import static com.flipkart.typescriptpoet.Util.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes files to a directory in batches. Each file is written to a temporary file next to it, and
+ * the batch becomes visible when it is {@linkplain #commit committed}: the temporary files are
+ * synced as the {@link Durability} requires, then renamed over their targets, so a crashed run never
+ * leaves truncated files behind. Directories are created once per committer. As with {@link
+ * TypeScriptFile#writeTo(Path)}, existing files keep the content of their {@linkplain
+ * CodeBlock#protectedRegion protected regions} and are left untouched if their content is unchanged.
+ * <p>
+ * <p>Files may be opened concurrently. A file joins the batch when its writer is closed; a
+ * {@linkplain #discard discarded} file never does. Closing the committer deletes the files of an
+ * uncommitted batch.
+ */
+public final class OutputCommitter implements OutputSink {
+    /**
+     * What a commit waits for before it returns.
+     */
+    public enum Durability {
+        /**
+         * Nothing is synced; the operating system writes the files when it chooses to.
+         */
+        NONE,
+        /**
+         * The content of every file is synced before any file of the batch is renamed.
+         */
+        FILES,
+        /**
+         * Like {@link #FILES}, and the directories of the batch are synced after the renames, so the
+         * new names survive a crash too.
+         */
+        FILES_AND_DIRECTORIES
+    }
+
+    private final Path directory;
+    private final Durability durability;
+    private final Set<Path> createdDirectories = ConcurrentHashMap.newKeySet();
+    private final List<Path[]> pending = new ArrayList<>(); // Temporary and target paths.
+
+    private OutputCommitter(Path directory, Durability durability) {
+        this.directory = directory;
+        this.durability = durability;
+    }
+
+    public static OutputCommitter create(Path directory, Durability durability) {
+        checkNotNull(directory, "directory == null");
+        checkNotNull(durability, "durability == null");
+        checkArgument(Files.notExists(directory) || Files.isDirectory(directory),
+                "path %s exists but is not a directory.", directory);
+        return new OutputCommitter(directory, durability);
+    }
+
+    @Override
+    public Writer openFile(String path) throws IOException {
+        Util.checkRelativePath(path);
+        Path target = directory.resolve(path).normalize();
+        checkArgument(target.startsWith(directory.normalize()), "path is outside the directory: %s", path);
+        Path parent = target.getParent();
+        if (!createdDirectories.contains(parent)) {
+            Files.createDirectories(parent);
+            createdDirectories.add(parent);
+        }
+        if (Files.isRegularFile(target)) return new ExistingFileWriter(target);
+        return new NewFileWriter(target);
+    }
+
+    /**
+     * Deletes the temporary file of {@code writer} instead of adding it to the batch.
+     */
+    @Override
+    public void discard(Writer writer) throws IOException {
+        if (writer instanceof NewFileWriter) {
+            ((NewFileWriter) writer).discard();
+        } else if (writer instanceof ExistingFileWriter) {
+            ((ExistingFileWriter) writer).discard();
+        } else {
+            writer.close();
+        }
+    }
+
+    private void addPending(Path temporary, Path target) {
+        synchronized (pending) {
+            pending.add(new Path[]{temporary, target});
+        }
+    }
+
+    /**
+     * Writes a new file to a temporary file, which joins the batch when the writer is closed.
+     */
+    private final class NewFileWriter extends BufferedWriter {
+        private final Path temporary;
+        private final Path target;
+        private boolean closed;
+
+        NewFileWriter(Path target) throws IOException {
+            this(Util.createTemporarySibling(target), target);
+        }
+
+        private NewFileWriter(Path temporary, Path target) throws IOException {
+            super(new OutputStreamWriter(Files.newOutputStream(temporary), UTF_8));
+            this.temporary = temporary;
+            this.target = target;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                super.close();
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+            addPending(temporary, target);
+        }
+
+        void discard() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    /**
+     * Writes a new version of an existing file, keeping the content of its protected regions like
+     * {@link TypeScriptFile#writeTo(Path)}. The new version joins the batch when the writer is
+     * closed, unless it is identical to the existing file.
+     */
+    private final class ExistingFileWriter extends Writer {
+        private final Path target;
+        private final RegionWriter regionWriter;
+        private boolean closed;
+
+        ExistingFileWriter(Path target) throws IOException {
+            this.target = target;
+            this.regionWriter = RegionWriter.open(target);
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            regionWriter.write(chars, offset, length);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                Path newVersion = regionWriter.finishToTemporary();
+                if (newVersion != null) addPending(newVersion, target);
+            } finally {
+                regionWriter.close();
+            }
+        }
+
+        void discard() throws IOException {
+            if (closed) return;
+            closed = true;
+            regionWriter.close(); // Deletes the temporary file, if any.
+        }
+    }
+
+    /**
+     * Makes the files written since the last commit visible at their paths, replacing existing files.
+     * Every writer of the batch must be closed.
+     */
+    public void commit() throws IOException {
+        List<Path[]> batch;
+        synchronized (pending) {
+            batch = new ArrayList<>(pending);
+        }
+        if (durability != Durability.NONE) {
+            for (Path[] file : batch) {
+                sync(file[0]);
+            }
+        }
+        Set<Path> directories = new LinkedHashSet<>();
+        int moved = 0;
+        try {
+            for (Path[] file : batch) {
+                Util.moveAtomically(file[0], file[1]);
+                directories.add(file[1].getParent());
+                moved++;
+            }
+        } finally {
+            // Files opened meanwhile were appended, so the batch is still at the start. Files that
+            // weren't moved stay pending, for close() to delete.
+            synchronized (pending) {
+                pending.subList(0, Math.min(moved, pending.size())).clear();
+            }
+        }
+        if (durability == Durability.FILES_AND_DIRECTORIES) {
+            for (Path directory : directories) {
+                try {
+                    sync(directory);
+                } catch (IOException e) {
+                    // Some platforms can't open directories for syncing; their renames are durable.
+                }
+            }
+        }
+    }
+
+    private static void sync(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Deletes the files of the uncommitted batch.
+     */
+    @Override
+    public void close() throws IOException {
+        List<Path[]> batch;
+        synchronized (pending) {
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        for (Path[] file : batch) {
+            Files.deleteIfExists(file[0]);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2018 Flipkart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flipkart.typescriptpoet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A destination for generated files, like a directory or an archive.
+ */
+public interface OutputSink extends Closeable {
+    /**
+     * Returns a writer for the file at {@code path}, relative to the root of this sink and separated
+     * by {@code '/'}, like {@code "com/example/model/Address.ts"}. The file is complete when the
+     * writer is closed. Unless a sink says otherwise, only one file may be open at a time.
+     */
+    Writer openFile(String path) throws IOException;
+
+    /**
+     * Closes {@code writer}, which this sink opened, without adding its file: writing the file
+     * failed. Sinks that can't take a file back just close the writer.
+     */
+    default void discard(Writer writer) throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2018 Flipkart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flipkart.typescriptpoet;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.flipkart.typescriptpoet.Util.checkArgument;
+import static com.flipkart.typescriptpoet.Util.checkNotNull;
+
+/**
+ * Packs files that each declare a single type into fewer modules that declare many, so that
+ * thousands of small types don't become thousands of small files.
+ * <p>
+ * <p>Packed types move to a new module, so files that import them must be rendered by a {@link
+ * TypeScriptProject} that contains the packed modules.
+ */
+public final class PackingPolicy {
+    private final String moduleName;
+    private final int budget;
+
+    private PackingPolicy(String moduleName, int budget) {
+        checkArgument(moduleName != null && !moduleName.isEmpty(), "moduleName is empty");
+        checkArgument(budget > 0, "budget <= 0: %s", budget);
+        this.moduleName = moduleName;
+        this.budget = budget;
+    }
+
+    /**
+     * Returns a policy that packs the types of each package into one module named {@code moduleName}.
+     */
+    public static PackingPolicy byPackage(String moduleName) {
+        return new PackingPolicy(moduleName, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns a policy that packs the types of each package into modules of about {@code budget}
+     * characters. The modules are named {@code moduleName}, {@code moduleName_2}, and so on. A type
+     * larger than the budget gets a module of its own.
+     */
+    public static PackingPolicy bySize(String moduleName, int budget) {
+        return new PackingPolicy(moduleName, budget);
+    }
+
+    /**
+     * Returns {@code files} with the files that declare a single type packed into modules. Other
+     * files are returned as they are, followed by the modules in the order their packages first
+     * appear. Modules take their settings, like the file comment, from their first file.
+     */
+    public List<TypeScriptFile> pack(Iterable<TypeScriptFile> files) {
+        checkNotNull(files, "files == null");
+        List<TypeScriptFile> result = new ArrayList<>();
+        Map<String, List<TypeScriptFile>> packages = new LinkedHashMap<>();
+        Set<String> unpacked = new HashSet<>(); // Modules that stay, as package + '/' + file name.
+        for (TypeScriptFile file : files) {
+            if (budget != Integer.MAX_VALUE) file.accept(CodeBlock.rejectingStreamOnce("Packing by size"));
+            if (!file.declaresSingleType()) {
+                unpacked.add(file.packageName + '/' + file.fileName);
+                result.add(file);
+                continue;
+            }
+            List<TypeScriptFile> packed = packages.get(file.packageName);
+            if (packed == null) {
+                packed = new ArrayList<>();
+                packages.put(file.packageName, packed);
+            }
+            packed.add(file);
+        }
+
+        for (Map.Entry<String, List<TypeScriptFile>> entry : packages.entrySet()) {
+            TypeScriptFile.Builder module = null;
+            int size = 0;
+            int count = 0;
+            for (TypeScriptFile file : entry.getValue()) {
+                int typeSize = budget == Integer.MAX_VALUE ? 0 : file.typeSpec.toString().length();
+                if (module == null || size > 0 && size + typeSize > budget) {
+                    if (module != null) result.add(module.build());
+                    String name = ++count == 1 ? moduleName : moduleName + "_" + count;
+                    checkArgument(!unpacked.contains(entry.getKey() + '/' + name),
+                            "module %s clashes with a file in %s", name, entry.getKey());
+                    module = file.toBuilder(entry.getKey(), name, null);
+                    size = 0;
+                }
+                module.addType(file.typeSpec);
+                size += typeSize;
+            }
+            result.add(module.build());
+        }
+        return result;
+    }
+}
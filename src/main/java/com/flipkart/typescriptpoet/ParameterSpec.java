@@ -17,6 +17,7 @@ package com.flipkart.typescriptpoet;
 
 import javax.lang.model.SourceVersion;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -70,6 +71,17 @@ public final class ParameterSpec {
         }
     }
 
+    /**
+     * Visits this parameter with {@code visitor}: its annotations and type.
+     */
+    public void accept(SpecVisitor visitor) {
+        if (!visitor.visitParameter(this)) return;
+        for (AnnotationSpec annotation : annotations) {
+            annotation.accept(visitor);
+        }
+        type.accept(visitor);
+    }
+
     @Override
     public boolean equals(Object o) {
         return this == o || o != null && getClass() == o.getClass() && toString().equals(o.toString());
@@ -88,7 +100,7 @@ public final class ParameterSpec {
             emit(codeWriter, false);
             return out.toString();
         } catch (IOException e) {
-            throw new AssertionError();
+            throw new UncheckedIOException(e);
         }
     }
 
@@ -50,14 +50,16 @@ public class ParameterizedTypeName extends TypeName {
      * Returns a parameterized type, applying {@code typeArguments} to {@code rawType}.
      */
     public static ParameterizedTypeName get(ClassName rawType, TypeName... typeArguments) {
-        return new ParameterizedTypeName(null, rawType, Arrays.asList(typeArguments));
+        return NamePool.canonical(
+                new ParameterizedTypeName(null, rawType, Arrays.asList(typeArguments)));
     }
 
     /**
      * Returns a parameterized type, applying {@code typeArguments} to {@code rawType}.
      */
     public static ParameterizedTypeName get(Class<?> rawType, Type... typeArguments) {
-        return new ParameterizedTypeName(null, ClassName.get(rawType), list(typeArguments));
+        return NamePool.canonical(
+                new ParameterizedTypeName(null, ClassName.get(rawType), list(typeArguments)));
     }
 
     /**
@@ -78,7 +80,7 @@ public class ParameterizedTypeName extends TypeName {
         List<TypeName> typeArguments = TypeName.list(type.getActualTypeArguments(), map);
         return (ownerType != null)
                 ? get(ownerType, map).nestedClass(rawType.simpleName(), typeArguments)
-                : new ParameterizedTypeName(null, rawType, typeArguments);
+                : NamePool.canonical(new ParameterizedTypeName(null, rawType, typeArguments));
     }
 
     private MapParameterizedTypeName getMapParameterizedTypeName() {
@@ -107,6 +109,20 @@ public class ParameterizedTypeName extends TypeName {
                 enclosingType, rawType, typeArguments, new ArrayList<AnnotationSpec>());
     }
 
+    @Override
+    void acceptComponents(SpecVisitor visitor) {
+        if (Util.isMap(rawType)) {
+            typeArguments.get(1).accept(visitor);
+            return;
+        }
+        if (!Util.isList(rawType)) {
+            rawType.accept(visitor);
+        }
+        for (TypeName typeArgument : typeArguments) {
+            typeArgument.accept(visitor);
+        }
+    }
+
     @Override
     CodeWriter emit(CodeWriter out) throws IOException {
         if (Util.isMap(rawType)) {
@@ -189,7 +205,13 @@ public class ParameterizedTypeName extends TypeName {
         }
 
         public static ParameterizedTypeName get(ClassName rawType, TypeName... typeArguments) {
-            return new MapParameterizedTypeName(null, rawType, Arrays.asList(typeArguments));
+            return NamePool.canonical(
+                    new MapParameterizedTypeName(null, rawType, Arrays.asList(typeArguments)));
+        }
+
+        @Override
+        void acceptComponents(SpecVisitor visitor) {
+            typeArguments.get(1).accept(visitor);
         }
 
         @Override
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2018 Flipkart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flipkart.typescriptpoet;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes a new version of an existing file, keeping the content of its {@linkplain
+ * CodeBlock#protectedRegion protected regions}. The existing file is read through a memory-mapped
+ * view, and the new text is compared with it line by line as it is written; nothing is written to
+ * disk unless they differ. A changed file is written to a temporary file that then replaces it.
+ */
+final class RegionWriter extends Writer {
+    static final String BEGIN_MARKER = "//#region ";
+    static final String END_MARKER = "//#endregion";
+    private static final int COPY_CHUNK_SIZE = 8192;
+
+    private final Path path;
+    private final FileChannel channel;
+    /**
+     * The mapped content of the existing file, released before the file is replaced.
+     */
+    private ByteBuffer existing;
+    /**
+     * The content of each region of the existing file, as the positions of its first byte and of the
+     * first byte of its end marker line.
+     */
+    private final Map<String, int[]> regions;
+    private final StringBuilder line = new StringBuilder();
+    /**
+     * While the new text matches the existing file, the length of the matching prefix.
+     */
+    private int matched;
+    /**
+     * The region whose generated content is being replaced by its existing content, or null.
+     */
+    private String replacedRegion;
+    private Path temporaryPath;
+    private OutputStream out;
+
+    private RegionWriter(Path path, FileChannel channel, ByteBuffer existing) {
+        this.path = path;
+        this.channel = channel;
+        this.existing = existing;
+        this.regions = scanRegions(existing);
+    }
+
+    static RegionWriter open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new RegionWriter(path, channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static Map<String, int[]> scanRegions(ByteBuffer bytes) {
+        Map<String, int[]> regions = new HashMap<>();
+        String open = null;
+        int contentStart = 0;
+        for (int start = 0; start < bytes.limit(); ) {
+            int end = start;
+            while (end < bytes.limit() && bytes.get(end) != '\n') end++;
+            int next = Math.min(end + 1, bytes.limit());
+            int text = start;
+            while (text < end && (bytes.get(text) == ' ' || bytes.get(text) == '\t')) text++;
+            if (open == null && startsWith(bytes, text, end, BEGIN_MARKER)) {
+                open = decode(bytes, text + BEGIN_MARKER.length(), end).trim();
+                contentStart = next;
+            } else if (open != null && startsWith(bytes, text, end, END_MARKER)) {
+                regions.put(open, new int[]{contentStart, start});
+                open = null;
+            }
+            start = next;
+        }
+        return regions;
+    }
+
+    private static boolean startsWith(ByteBuffer bytes, int start, int end, String prefix) {
+        if (end - start < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (bytes.get(start + i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer bytes, int start, int end) {
+        byte[] text = new byte[end - start];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = bytes.get(start + i);
+        }
+        return new String(text, UTF_8);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            line.append(chars[i]);
+            if (chars[i] == '\n') processLine();
+        }
+    }
+
+    private void processLine() throws IOException {
+        String text = line.toString();
+        line.setLength(0);
+        String trimmed = text.trim();
+        if (replacedRegion != null) {
+            if (!trimmed.startsWith(END_MARKER)) return; // Generated content of a preserved region.
+            replacedRegion = null;
+        }
+        emit(text.getBytes(UTF_8));
+        if (trimmed.startsWith(BEGIN_MARKER)) {
+            String name = trimmed.substring(BEGIN_MARKER.length()).trim();
+            int[] region = regions.get(name);
+            if (region != null) {
+                emitExisting(region[0], region[1]);
+                replacedRegion = name;
+            }
+        }
+    }
+
+    private void emit(byte[] bytes) throws IOException {
+        if (out == null) {
+            if (matches(bytes)) {
+                matched += bytes.length;
+                return;
+            }
+            diverge();
+        }
+        out.write(bytes);
+    }
+
+    private boolean matches(byte[] bytes) {
+        if (matched + bytes.length > existing.limit()) return false;
+        for (int i = 0; i < bytes.length; i++) {
+            if (existing.get(matched + i) != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    private void emitExisting(int start, int end) throws IOException {
+        if (out == null) {
+            if (start == matched) {
+                matched = end;
+                return;
+            }
+            diverge();
+        }
+        copyExisting(start, end);
+    }
+
+    /**
+     * Starts writing the new version, beginning with the prefix that matched the existing file.
+     */
+    private void diverge() throws IOException {
+        temporaryPath = Util.createTemporarySibling(path); // Keeps the permissions of the file.
+        out = new BufferedOutputStream(Files.newOutputStream(temporaryPath));
+        copyExisting(0, matched);
+    }
+
+    private void copyExisting(int start, int end) throws IOException {
+        byte[] chunk = new byte[COPY_CHUNK_SIZE];
+        ByteBuffer view = existing.duplicate();
+        view.position(start);
+        while (view.position() < end) {
+            int count = Math.min(chunk.length, end - view.position());
+            view.get(chunk, 0, count);
+            out.write(chunk, 0, count);
+        }
+    }
+
+    /**
+     * Completes the new version and replaces the existing file with it, unless they are identical.
+     * Returns true if the file was replaced.
+     */
+    boolean finish() throws IOException {
+        Path newVersion = finishToTemporary();
+        if (newVersion == null) return false;
+        Util.moveAtomically(newVersion, path);
+        return true;
+    }
+
+    /**
+     * Completes the new version and returns the temporary file holding it, which the caller then
+     * owns, or null if it is identical to the existing file. The existing file is released, so it
+     * can be replaced even on platforms that can't rename over open or mapped files; the mapping
+     * itself goes away when the buffer is collected.
+     */
+    Path finishToTemporary() throws IOException {
+        if (line.length() > 0) processLine();
+        if (out == null) {
+            if (matched == existing.limit()) return null;
+            diverge(); // The new version is a prefix of the existing file.
+        }
+        out.close();
+        out = null;
+        existing = null;
+        channel.close();
+        Path result = temporaryPath;
+        temporaryPath = null;
+        return result;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (out != null) out.close();
+            if (temporaryPath != null) Files.deleteIfExists(temporaryPath);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018 Flipkart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flipkart.typescriptpoet;
+
+/**
+ * Walks the specs of a generated file without rendering them. Pass a visitor to the {@code accept}
+ * method of any spec, type name or code block.
+ * <p>
+ * <p>Children are visited in the order they are emitted. A {@code visit} method that returns a
+ * boolean decides whether the children of its argument are visited: return false to prune that
+ * sub-tree. The default implementations visit everything and do nothing else.
+ * <p>
+ * <p>Code blocks are visited as their placeholders: {@code $T} arguments as type names, {@code $N}
+ * as names, {@code $S} as strings and {@code $L} as literals. Literal types, code blocks and
+ * annotations are visited like any other spec.
+ */
+public abstract class SpecVisitor {
+
+    public boolean visitFile(TypeScriptFile file) {
+        return true;
+    }
+
+    /**
+     * Visits a declared or anonymous type. Children are its documentation, annotations, type
+     * variables, supertypes, enum constants and members.
+     */
+    public boolean visitType(TypeSpec type) {
+        return true;
+    }
+
+    /**
+     * Visits an enum constant. Children are those of {@code constant}, which is anonymous.
+     */
+    public boolean visitEnumConstant(String name, TypeSpec constant) {
+        return true;
+    }
+
+    public boolean visitField(FieldSpec field) {
+        return true;
+    }
+
+    public boolean visitFunction(FunctionSpec function) {
+        return true;
+    }
+
+    public boolean visitParameter(ParameterSpec parameter) {
+        return true;
+    }
+
+    public boolean visitAnnotation(AnnotationSpec annotation) {
+        return true;
+    }
+
+    /**
+     * Visits the declaration of a type variable. Children are its bounds. Uses of type variables are
+     * visited through {@link #visitTypeName}, which does not descend into bounds.
+     */
+    public boolean visitTypeVariable(TypeVariableName typeVariable) {
+        return true;
+    }
+
+    /**
+     * Visits a type reference. Children are its annotations, and the raw type and type arguments of
+     * parameterized types or the component type of arrays.
+     */
+    public boolean visitTypeName(TypeName typeName) {
+        return true;
+    }
+
+    /**
+     * Visits documentation and file comments. Returning true visits {@code doc} as a code block.
+     */
+    public boolean visitDoc(CodeBlock doc) {
+        return true;
+    }
+
+    public boolean visitCodeBlock(CodeBlock codeBlock) {
+        return true;
+    }
+
+    /**
+     * Visits the argument of a {@code $N} placeholder.
+     */
+    public void visitName(String name) {
+    }
+
+    /**
+     * Visits the argument of a {@code $S} placeholder, which may be null.
+     */
+    public void visitString(String string) {
+    }
+
+    /**
+     * Visits the argument of a {@code $L} placeholder that is not a type, code block or annotation.
+     * Streams of code blocks are visited here before their content.
+     */
+    public void visitLiteral(Object literal) {
+    }
+}
@@ -248,6 +248,31 @@ public class TypeName {
         return keyword != null && this != VOID;
     }
 
+    /**
+     * Returns true if {@link NamePool} may use {@code other} in place of this type name. This is
+     * equality by default; subtypes whose equality ignores part of their state must be stricter.
+     */
+    boolean internEquivalent(TypeName other) {
+        return equals(other);
+    }
+
+    /**
+     * Visits this type reference and, unless {@code visitor} prunes it, the types it is made of.
+     */
+    public final void accept(SpecVisitor visitor) {
+        if (!visitor.visitTypeName(this)) return;
+        for (AnnotationSpec annotation : annotations) {
+            annotation.accept(visitor);
+        }
+        acceptComponents(visitor);
+    }
+
+    /**
+     * Visits the types this type is made of, in the order they are emitted.
+     */
+    void acceptComponents(SpecVisitor visitor) {
+    }
+
     @Override
     public final boolean equals(Object o) {
         return this == o || o != null && getClass() == o.getClass() && toString().equals(o.toString());
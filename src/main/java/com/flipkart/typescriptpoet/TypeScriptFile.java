@@ -18,18 +18,22 @@ package com.flipkart.typescriptpoet;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 
 import static com.flipkart.typescriptpoet.Util.checkArgument;
 import static com.flipkart.typescriptpoet.Util.checkNotNull;
+import static com.flipkart.typescriptpoet.Util.checkState;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
- * A Typescript file containing a single top level class.
+ * A Typescript module. It usually contains a single top level class, but may declare several types,
+ * functions and constants that share one import block, or re-export a class declared in another
+ * file.
  */
 public final class TypeScriptFile {
     private static final Appendable NULL_APPENDABLE = new Appendable() {
@@ -52,61 +56,198 @@ public final class TypeScriptFile {
     private static final String TYPESCRIPT_EXTENSION = ".ts";
     public final CodeBlock fileComment;
     public final String packageName;
+    /**
+     * The first declared type, or null if this file declares none, like files that only {@linkplain
+     * #reExportBuilder re-export} a type.
+     */
     public final TypeSpec typeSpec;
+    public final List<TypeSpec> typeSpecs;
+    public final List<FunctionSpec> functionSpecs;
+    public final List<FieldSpec> fieldSpecs;
     public final boolean skipJavaLangImports;
+    final String fileName;
+    final ClassName reExported;
+    /**
+     * Classes moved by {@linkplain #split splitting}, to the classes that replace them.
+     */
+    final Map<ClassName, ClassName> relocations;
+    private final List<Object> declarations;
+    private final Set<String> typeNames;
     private final Set<String> staticImports;
     private final String indent;
-    private final Path currentPath;
+    private final ExecutorService memberExecutor;
+    private final boolean templateLiterals;
 
     private TypeScriptFile(Builder builder) {
         this.fileComment = builder.fileComment.build();
         this.packageName = builder.packageName;
-        this.typeSpec = builder.typeSpec;
+        this.fileName = builder.fileName;
+        this.reExported = builder.reExported;
+        this.declarations = Util.immutableList(builder.declarations);
+        checkState(reExported == null || declarations.isEmpty(),
+                "re-exporting file %s cannot declare anything", fileName);
+        checkState(reExported != null || !declarations.isEmpty(), "file %s declares nothing", fileName);
+
+        List<TypeSpec> typeSpecs = new ArrayList<>();
+        List<FunctionSpec> functionSpecs = new ArrayList<>();
+        List<FieldSpec> fieldSpecs = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (Object declaration : declarations) {
+            String name;
+            if (declaration instanceof TypeSpec) {
+                typeSpecs.add((TypeSpec) declaration);
+                name = ((TypeSpec) declaration).name;
+            } else if (declaration instanceof FunctionSpec) {
+                functionSpecs.add((FunctionSpec) declaration);
+                name = ((FunctionSpec) declaration).name;
+            } else {
+                fieldSpecs.add((FieldSpec) declaration);
+                name = ((FieldSpec) declaration).name;
+            }
+            checkArgument(names.add(name), "%s is declared twice in %s", name, fileName);
+        }
+        this.typeSpecs = Util.immutableList(typeSpecs);
+        this.functionSpecs = Util.immutableList(functionSpecs);
+        this.fieldSpecs = Util.immutableList(fieldSpecs);
+        this.typeSpec = typeSpecs.isEmpty() ? null : typeSpecs.get(0);
+        Set<String> typeNames = new LinkedHashSet<>();
+        for (TypeSpec declared : typeSpecs) {
+            typeNames.add(declared.name);
+        }
+        this.typeNames = Collections.unmodifiableSet(typeNames);
         this.skipJavaLangImports = builder.skipJavaLangImports;
         this.staticImports = Util.immutableSet(builder.staticImports);
         this.indent = builder.indent;
-        this.currentPath = Util.absolutePath(packageName, typeSpec.name);
+        this.memberExecutor = builder.memberExecutor;
+        this.templateLiterals = builder.templateLiterals;
+        this.relocations = Util.immutableMap(builder.relocations);
     }
 
     public static Builder builder(String packageName, TypeSpec typeSpec) {
         checkNotNull(typeSpec, "typeSpec == null");
         checkNotNull(packageName, "packageName == null");
-        return new Builder(packageName, typeSpec);
+        return new Builder(packageName, typeSpec.name, null).addType(typeSpec);
+    }
+
+    /**
+     * Returns a builder for the module {@code fileName} in {@code packageName}. Add its types,
+     * functions and constants to the builder.
+     */
+    public static Builder moduleBuilder(String packageName, String fileName) {
+        checkNotNull(packageName, "packageName == null");
+        checkArgument(fileName != null && !fileName.isEmpty(), "fileName is empty");
+        return new Builder(packageName, fileName, null);
+    }
+
+    /**
+     * Returns a builder for the file {@code name} in {@code packageName} that re-exports the top-level
+     * class {@code exported} as {@code name}, like {@code export { Address as Location } from
+     * './../shared/Address'}.
+     */
+    public static Builder reExportBuilder(String packageName, String name, ClassName exported) {
+        checkNotNull(packageName, "packageName == null");
+        checkArgument(name != null && !name.isEmpty(), "name is empty");
+        checkNotNull(exported, "exported == null");
+        checkArgument(exported.enclosingClassName() == null, "%s is not a top-level class", exported);
+        return new Builder(packageName, name, exported);
     }
 
     public void writeTo(Appendable out) throws IOException {
+        writeTo(out, null);
+    }
+
+    /**
+     * Writes this to {@code out}, resolving imports against {@code project} if it is not null.
+     */
+    void writeTo(Appendable out, TypeScriptProject project) throws IOException {
         // First pass: emit the entire class, just to collect the types we'll need to import.
         CodeWriter importsCollector = new CodeWriter(NULL_APPENDABLE, indent, staticImports);
-        emit(importsCollector);
+        importsCollector.memberExecutor = memberExecutor;
+        importsCollector.templateLiterals = templateLiterals;
+        importsCollector.importPass = true;
+        emit(importsCollector, project);
         Map<String, ClassName> suggestedImports = importsCollector.suggestedImports();
 
         // Second pass: write the code, taking advantage of the imports.
         CodeWriter codeWriter = new CodeWriter(out, indent, suggestedImports, staticImports);
-        emit(codeWriter);
+        codeWriter.memberExecutor = memberExecutor;
+        codeWriter.templateLiterals = templateLiterals;
+        emit(codeWriter, project);
     }
 
     /**
      * Writes this to {@code directory} as UTF-8 using the standard directory structure.
      */
+    public void writeTo(Path directory) throws IOException {
+        writeTo(directory, TYPESCRIPT_EXTENSION);
+    }
+
+    /**
+     * Writes this to {@code directory} as UTF-8 using the standard directory structure. If the file
+     * already exists, the content of its {@linkplain CodeBlock#protectedRegion protected regions} is
+     * kept, and the file is left untouched if its content would not change.
+     */
     public void writeTo(Path directory, String fileExtension) throws IOException {
+        writeTo(directory, fileExtension, null);
+    }
+
+    void writeTo(Path directory, String fileExtension, TypeScriptProject project) throws IOException {
         checkArgument(Files.notExists(directory) || Files.isDirectory(directory),
                 "path %s exists but is not a directory.", directory);
 
-        Path outputDirectory = directory;
-
-        if (!packageName.isEmpty()) {
-            for (String packageComponent : packageName.split("\\.")) {
-                outputDirectory = outputDirectory.resolve(packageComponent);
-            }
+        Path outputDirectory = Util.packageDirectory(directory, packageName);
+        if (project != null) {
+            project.createDirectories(outputDirectory);
+        } else {
             Files.createDirectories(outputDirectory);
         }
 
-        Path outputPath = outputDirectory.resolve(typeSpec.name + (fileExtension != null ? fileExtension : ".ts"));
-        try (Writer writer = new OutputStreamWriter(Files.newOutputStream(outputPath), UTF_8)) {
-            writeTo(writer);
+        Path outputPath = outputDirectory.resolve(fileName + (fileExtension != null ? fileExtension : ".ts"));
+        if (Files.isRegularFile(outputPath)) {
+            try (RegionWriter writer = RegionWriter.open(outputPath)) {
+                writeTo(writer, project);
+                writer.finish();
+            }
+            return;
+        }
+        // Write next to the file and rename, so that a failed write never leaves a truncated file.
+        Path temporaryPath = Util.createTemporarySibling(outputPath);
+        try {
+            try (Writer writer = new OutputStreamWriter(Files.newOutputStream(temporaryPath), UTF_8)) {
+                writeTo(writer, project);
+            }
+            Util.moveAtomically(temporaryPath, outputPath);
+        } finally {
+            Files.deleteIfExists(temporaryPath);
         }
     }
 
+    /**
+     * Writes this to {@code sink} as UTF-8 using the standard directory structure.
+     */
+    public void writeTo(OutputSink sink) throws IOException {
+        writeTo(sink, TYPESCRIPT_EXTENSION);
+    }
+
+    /**
+     * Writes this to {@code sink} as UTF-8 using the standard directory structure.
+     */
+    public void writeTo(OutputSink sink, String fileExtension) throws IOException {
+        writeTo(sink, fileExtension, null);
+    }
+
+    void writeTo(OutputSink sink, String fileExtension, TypeScriptProject project) throws IOException {
+        checkNotNull(sink, "sink == null");
+        Util.writeFile(sink, path(fileExtension), writer -> writeTo(writer, project));
+    }
+
+    /**
+     * Returns the path of this file relative to the output root, separated by {@code '/'}.
+     */
+    String path(String fileExtension) {
+        return Util.packagePath(packageName, fileName + (fileExtension != null ? fileExtension : TYPESCRIPT_EXTENSION));
+    }
+
     /**
      * Writes this to {@code directory} as UTF-8 using the standard directory structure.
      */
@@ -121,8 +262,10 @@ public final class TypeScriptFile {
         writeTo(directory.toPath(), TYPESCRIPT_EXTENSION);
     }
 
-    private void emit(CodeWriter codeWriter) throws IOException {
+    private void emit(CodeWriter codeWriter, TypeScriptProject project) throws IOException {
         codeWriter.pushPackage(packageName);
+        codeWriter.fileTypeNames = typeNames;
+        codeWriter.relocations = project != null ? project.relocations : relocations;
 
         if (!fileComment.isEmpty()) {
             codeWriter.emitComment(fileComment);
@@ -137,9 +280,8 @@ public final class TypeScriptFile {
 
         int importedTypesCount = 0;
         for (ClassName className : new TreeSet<>(codeWriter.importedTypes().values())) {
-            Path importPath = Paths.get(className.fullyQualifiedName());
-            String relativePath = Util.getRelativePath(currentPath, importPath);
-            codeWriter.emit("import { $L ;\n", className.simpleName() + " } from '" + relativePath + "'");
+            String moduleSpecifier = moduleSpecifier(className, project);
+            codeWriter.emit("import { $L ;\n", className.simpleName() + " } from '" + moduleSpecifier + "'");
             importedTypesCount++;
         }
 
@@ -147,10 +289,202 @@ public final class TypeScriptFile {
             codeWriter.emit("\n");
         }
 
-        typeSpec.emit(codeWriter, null, Collections.<Modifier>emptySet());
+        if (reExported != null) {
+            String exportedName = reExported.simpleName();
+            if (!exportedName.equals(fileName)) exportedName += " as " + fileName;
+            codeWriter.emit("export { $L } from '$L';\n",
+                    exportedName, moduleSpecifier(reExported, project));
+        }
+
+        boolean firstDeclaration = true;
+        for (Object declaration : declarations) {
+            if (!firstDeclaration) codeWriter.emit("\n");
+            if (declaration instanceof TypeSpec) {
+                ((TypeSpec) declaration).emit(codeWriter, null, Collections.<Modifier>emptySet());
+            } else if (declaration instanceof FunctionSpec) {
+                ((FunctionSpec) declaration).emit(codeWriter, Collections.<Modifier>emptySet(), true);
+            } else {
+                ((FieldSpec) declaration).emit(codeWriter, Collections.<Modifier>emptySet(), true);
+            }
+            firstDeclaration = false;
+        }
         codeWriter.popPackage();
     }
 
+    /**
+     * Returns true if this file declares one type and nothing else.
+     */
+    boolean declaresSingleType() {
+        return declarations.size() == 1 && typeSpec != null;
+    }
+
+    /**
+     * Returns the names this file exports: the re-exported name or the names of its exported
+     * declarations.
+     */
+    List<String> exportedNames() {
+        if (reExported != null) return Collections.singletonList(fileName);
+        List<String> result = new ArrayList<>();
+        for (Object declaration : declarations) {
+            if (declaration instanceof TypeSpec) {
+                TypeSpec declared = (TypeSpec) declaration;
+                if (declared.hasModifier(Modifier.EXPORT)) result.add(declared.name);
+            } else if (declaration instanceof FunctionSpec) {
+                FunctionSpec declared = (FunctionSpec) declaration;
+                if (declared.hasModifier(Modifier.EXPORT)) result.add(declared.name);
+            } else {
+                FieldSpec declared = (FieldSpec) declaration;
+                if (declared.hasModifier(Modifier.EXPORT)) result.add(declared.name);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns this file split into modules that each render to at most {@code maxBytes} bytes of
+     * UTF-8 and {@code maxLines} lines, or just this file if it is within both budgets. Only files
+     * that declare a single type are split, in two steps:
+     * <ul>
+     * <li>Each nested type moves to an exported module of its own in the same package, named after
+     * the types that enclose it joined by underscores, like {@code Order_Status}. Moved types that
+     * still exceed the budget are split in turn.</li>
+     * <li>If the type is an interface without type variables and still exceeds the budget, its fields
+     * move to part interfaces {@code Order_Part1}, {@code Order_Part2}, and so on, which it extends.
+     * Parts are filled using an estimate of each field's size.</li>
+     * </ul>
+     * <p>
+     * <p>References to moved types are rewritten to their new names and imported from their new
+     * modules, both in the returned files and in any {@link TypeScriptProject} that contains them.
+     * TypeScript cannot merge the members of a class or an enum across modules, so classes and enums
+     * shed only their nested types and may remain over the budget.
+     */
+    public List<TypeScriptFile> split(int maxBytes, int maxLines) {
+        checkArgument(maxBytes > 0, "maxBytes <= 0: %s", maxBytes);
+        checkArgument(maxLines > 0, "maxLines <= 0: %s", maxLines);
+        accept(CodeBlock.rejectingStreamOnce("split"));
+        if (!declaresSingleType() || fits(typeSpec, relocations, maxBytes, maxLines)) {
+            return Collections.singletonList(this);
+        }
+
+        Map<ClassName, ClassName> relocations = new LinkedHashMap<>(this.relocations);
+        List<TypeSpec> modules = new ArrayList<>();
+        split(typeSpec, maxBytes, maxLines, relocations, modules);
+        List<TypeScriptFile> result = new ArrayList<>();
+        for (TypeSpec module : modules) {
+            Builder builder = toBuilder(packageName, result.isEmpty() ? fileName : module.name, null)
+                    .addType(module);
+            builder.relocations.putAll(relocations);
+            result.add(builder.build());
+        }
+        return result;
+    }
+
+    /**
+     * Adds {@code type} and the modules split from it to {@code modules}, recording the classes that
+     * move in {@code relocations}.
+     */
+    private void split(TypeSpec type, int maxBytes, int maxLines,
+                       Map<ClassName, ClassName> relocations, List<TypeSpec> modules) {
+        int index = modules.size();
+        modules.add(type);
+        if (fits(type, relocations, maxBytes, maxLines)) return;
+
+        if (!type.typeSpecs.isEmpty()) {
+            for (TypeSpec nested : type.typeSpecs) {
+                String name = type.name + "_" + nested.name;
+                relocations.put(ClassName.get(packageName, type.name, nested.name),
+                        ClassName.get(packageName, name));
+                split(nested.toTopLevel(name), maxBytes, maxLines, relocations, modules);
+            }
+            type = type.withoutNestedTypes();
+            modules.set(index, type);
+        }
+
+        if (type.kind != TypeSpec.Kind.INTERFACE || !type.typeVariables.isEmpty()
+                || type.fieldSpecs.size() < 2 || fits(type, relocations, maxBytes, maxLines)) {
+            return;
+        }
+        int overheadBytes = render(TypeSpec.interfaceBuilder(type.name + "_Part1")
+                .addModifiers(Modifier.EXPORT).build(), relocations).getBytes(UTF_8).length;
+        List<List<FieldSpec>> parts = new ArrayList<>();
+        List<FieldSpec> part = null;
+        int partBytes = 0;
+        int partLines = 0;
+        for (FieldSpec fieldSpec : type.fieldSpecs) {
+            String field = fieldSpec.toString();
+            int fieldLines = lineCount(field) + 1; // Fields are separated by a blank line.
+            int fieldBytes = field.getBytes(UTF_8).length + fieldLines * indent.length() + 1;
+            if (part == null || partBytes + fieldBytes > maxBytes || partLines + fieldLines > maxLines) {
+                part = new ArrayList<>();
+                parts.add(part);
+                partBytes = overheadBytes;
+                partLines = lineCount(fileComment.toString()) + 3;
+            }
+            part.add(fieldSpec);
+            partBytes += fieldBytes;
+            partLines += fieldLines;
+        }
+
+        TypeSpec.Builder parted = type.toBuilderWithoutFields();
+        for (int i = 0; i < parts.size(); i++) {
+            String name = type.name + "_Part" + (i + 1);
+            modules.add(TypeSpec.interfaceBuilder(name)
+                    .addModifiers(Modifier.EXPORT)
+                    .addFields(parts.get(i))
+                    .build());
+            parted.addSuperinterface(ClassName.get(packageName, name));
+        }
+        modules.set(index, parted.build());
+    }
+
+    private boolean fits(TypeSpec type, Map<ClassName, ClassName> relocations, int maxBytes,
+                         int maxLines) {
+        String text = render(type, relocations);
+        return lineCount(text) <= maxLines && text.getBytes(UTF_8).length <= maxBytes;
+    }
+
+    /**
+     * Returns the text of a file with the settings of this file that declares only {@code type}.
+     */
+    private String render(TypeSpec type, Map<ClassName, ClassName> relocations) {
+        Builder builder = toBuilder(packageName, type.name, null).addType(type);
+        builder.relocations.putAll(relocations);
+        return builder.build().toString();
+    }
+
+    private static int lineCount(String text) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') count++;
+        }
+        return count;
+    }
+
+    private String moduleSpecifier(ClassName className, TypeScriptProject project) {
+        return project != null
+                ? project.moduleSpecifier(packageName, className)
+                : Util.modulePrefix(packageName, className.packageName()) + className.simpleName();
+    }
+
+    /**
+     * Visits this file with {@code visitor}: its file comment and its declarations, or the
+     * re-exported type.
+     */
+    public void accept(SpecVisitor visitor) {
+        if (!visitor.visitFile(this)) return;
+        if (visitor.visitDoc(fileComment)) fileComment.accept(visitor);
+        if (reExported != null) reExported.accept(visitor);
+        for (Object declaration : declarations) {
+            if (declaration instanceof TypeSpec) {
+                ((TypeSpec) declaration).accept(visitor);
+            } else if (declaration instanceof FunctionSpec) {
+                ((FunctionSpec) declaration).accept(visitor);
+            } else {
+                ((FieldSpec) declaration).accept(visitor);
+            }
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -171,29 +505,68 @@ public final class TypeScriptFile {
             writeTo(result);
             return result.toString();
         } catch (IOException e) {
-            throw new AssertionError();
+            throw new UncheckedIOException(e);
         }
     }
 
     public Builder toBuilder() {
-        Builder builder = new Builder(packageName, typeSpec);
+        Builder builder = toBuilder(packageName, fileName, reExported);
+        builder.declarations.addAll(declarations);
+        return builder;
+    }
+
+    /**
+     * Returns a builder with the settings of this file and no declarations.
+     */
+    Builder toBuilder(String packageName, String fileName, ClassName reExported) {
+        Builder builder = new Builder(packageName, fileName, reExported);
         builder.fileComment.add(fileComment);
         builder.skipJavaLangImports = skipJavaLangImports;
         builder.indent = indent;
+        builder.memberExecutor = memberExecutor;
+        builder.templateLiterals = templateLiterals;
+        builder.relocations.putAll(relocations);
         return builder;
     }
 
     public static final class Builder {
-        private final TypeSpec typeSpec;
         private final String packageName;
+        private final String fileName;
+        private final ClassName reExported;
+        private final List<Object> declarations = new ArrayList<>();
         private final CodeBlock.Builder fileComment = CodeBlock.builder();
         private final Set<String> staticImports = new TreeSet<>();
         private boolean skipJavaLangImports;
         private String indent = "  ";
+        private ExecutorService memberExecutor;
+        private boolean templateLiterals;
+        private final Map<ClassName, ClassName> relocations = new LinkedHashMap<>();
 
-        private Builder(String packageName, TypeSpec typeSpec) {
+        private Builder(String packageName, String fileName, ClassName reExported) {
             this.packageName = packageName;
-            this.typeSpec = typeSpec;
+            this.fileName = fileName;
+            this.reExported = reExported;
+        }
+
+        public Builder addType(TypeSpec typeSpec) {
+            checkArgument(typeSpec != null && typeSpec.name != null, "anonymous types cannot be declared");
+            declarations.add(typeSpec);
+            return this;
+        }
+
+        public Builder addFunction(FunctionSpec functionSpec) {
+            checkArgument(functionSpec != null && !functionSpec.isConstructor(),
+                    "top-level functions cannot be constructors");
+            declarations.add(functionSpec);
+            return this;
+        }
+
+        /**
+         * Declares a top-level constant, or a variable if {@code fieldSpec} is mutable.
+         */
+        public Builder addField(FieldSpec fieldSpec) {
+            declarations.add(checkNotNull(fieldSpec, "fieldSpec == null"));
+            return this;
         }
 
         public Builder addFileComment(String format, Object... args) {
@@ -238,6 +611,27 @@ public final class TypeScriptFile {
             return this;
         }
 
+        /**
+         * Renders the members of the top-level type concurrently on {@code executor}, in groups that
+         * are written into separate buffers and concatenated in order. The output is identical to
+         * serial rendering; this only pays off for types with many members. Pass null to render
+         * serially.
+         */
+        public Builder renderInParallel(ExecutorService executor) {
+            this.memberExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Emits {@code $S} strings that span several lines as backtick template literals that span
+         * the same lines, instead of a concatenation of one double-quoted string per line. Single-line
+         * strings are always emitted in double quotes.
+         */
+        public Builder templateLiterals(boolean templateLiterals) {
+            this.templateLiterals = templateLiterals;
+            return this;
+        }
+
         public TypeScriptFile build() {
             return new TypeScriptFile(this);
         }
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2018 Flipkart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flipkart.typescriptpoet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.regex.Pattern;
+
+import static com.flipkart.typescriptpoet.Util.checkArgument;
+import static com.flipkart.typescriptpoet.Util.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A set of files generated together. The project knows which file declares each class, so imports
+ * resolve to the declaring module, and computes the path between each pair of packages once for
+ * all of its files.
+ * <p>
+ * <p>A project can also write an {@code index.ts} barrel per package that re-exports the exported
+ * declarations of the package's files. Barrels are built from the files as they are written, and a
+ * barrel whose content did not change is left untouched. When writing to a directory, a barrel left
+ * by an earlier run in a package of this project that no longer exports anything is deleted, as
+ * long as it only has the re-exports that barrels are made of.
+ */
+public final class TypeScriptProject {
+    private static final String TYPESCRIPT_EXTENSION = ".ts";
+    private static final String BARREL_NAME = "index";
+    private static final Pattern BARREL_LINE = Pattern.compile("export \\{ [^}]* \\} from '\\./[^']*';");
+
+    public final List<TypeScriptFile> files;
+    /**
+     * The classes moved by {@linkplain TypeScriptFile#split splitting} any file of this project.
+     */
+    final Map<ClassName, ClassName> relocations;
+    private final Set<ClassName> modules;
+    private final Map<ClassName, TypeScriptFile> declaringFiles;
+    private final ExecutorService executor;
+    private final boolean writeBarrels;
+    private final ConcurrentMap<String, ConcurrentMap<String, String>> modulePrefixes =
+            new ConcurrentHashMap<>();
+    private final Set<Path> createdDirectories = ConcurrentHashMap.newKeySet();
+
+    private TypeScriptProject(Builder builder) {
+        this.files = Util.immutableList(builder.files);
+        this.executor = builder.executor;
+        this.writeBarrels = builder.writeBarrels;
+        Set<ClassName> modules = new HashSet<>();
+        Map<ClassName, TypeScriptFile> declaringFiles = new HashMap<>();
+        Map<ClassName, ClassName> relocations = new HashMap<>();
+        for (TypeScriptFile file : files) {
+            relocations.putAll(file.relocations);
+            ClassName module = ClassName.get(file.packageName, file.fileName);
+            checkArgument(modules.add(module), "duplicate file for %s", module);
+            if (file.reExported != null) declaringFiles.put(module, file);
+            for (TypeSpec typeSpec : file.typeSpecs) {
+                ClassName declared = ClassName.get(file.packageName, typeSpec.name);
+                checkArgument(declaringFiles.put(declared, file) == null, "%s is declared twice", declared);
+            }
+        }
+        this.modules = modules;
+        this.declaringFiles = declaringFiles;
+        this.relocations = Collections.unmodifiableMap(relocations);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the file of this project that declares {@code className}, or null if there is none.
+     */
+    public TypeScriptFile declaringFile(ClassName className) {
+        return declaringFiles.get(className.topLevelClassName());
+    }
+
+    /**
+     * Returns the module specifier that files in {@code fromPackage} import {@code className} from,
+     * like {@code "./../model/Address"}. Classes declared outside this project are assumed to live in
+     * a module named after them in their package's directory.
+     */
+    public String moduleSpecifier(String fromPackage, ClassName className) {
+        TypeScriptFile file = declaringFile(className);
+        return file != null
+                ? modulePrefix(fromPackage, file.packageName) + file.fileName
+                : modulePrefix(fromPackage, className.packageName()) + className.topLevelClassName().simpleName();
+    }
+
+    private String modulePrefix(String fromPackage, String toPackage) {
+        ConcurrentMap<String, String> prefixes = modulePrefixes.get(fromPackage);
+        if (prefixes == null) {
+            ConcurrentMap<String, String> created = new ConcurrentHashMap<>();
+            prefixes = modulePrefixes.putIfAbsent(fromPackage, created);
+            if (prefixes == null) prefixes = created;
+        }
+        String prefix = prefixes.get(toPackage);
+        if (prefix == null) {
+            prefix = Util.modulePrefix(fromPackage, toPackage);
+            prefixes.putIfAbsent(toPackage, prefix);
+        }
+        return prefix;
+    }
+
+    /**
+     * Creates {@code directory} unless this project already did.
+     */
+    void createDirectories(Path directory) throws IOException {
+        if (createdDirectories.contains(directory)) return;
+        Files.createDirectories(directory);
+        createdDirectories.add(directory);
+    }
+
+    /**
+     * Returns the text of {@code file} with its imports resolved against this project.
+     */
+    public String render(TypeScriptFile file) {
+        try {
+            StringBuilder result = new StringBuilder();
+            file.writeTo(result, this);
+            return result.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes every file to {@code directory} as UTF-8 using the standard directory structure.
+     */
+    public void writeTo(Path directory) throws IOException {
+        writeTo(directory, TYPESCRIPT_EXTENSION);
+    }
+
+    /**
+     * Writes every file to {@code directory} as UTF-8 using the standard directory structure. Files
+     * are written concurrently if the project was built to {@linkplain Builder#renderInParallel
+     * render in parallel}.
+     */
+    public void writeTo(Path directory, String fileExtension) throws IOException {
+        writeTo(directory, fileExtension, null);
+    }
+
+    /**
+     * Writes every file to {@code directory} like {@link #writeTo(Path, String)}, recording each
+     * completed file in {@code journal}. Files that the journal already has complete are skipped
+     * without being rendered, so a failed run resumes where it stopped. Barrels are always written.
+     */
+    public void writeTo(Path directory, String fileExtension, GenerationJournal journal) throws IOException {
+        // Package name to module name to the names it exports.
+        Map<String, Map<String, Set<String>>> barrels = new TreeMap<>();
+        if (executor == null) {
+            for (TypeScriptFile file : files) {
+                writeFile(file, directory, fileExtension, journal);
+                addExports(barrels, file);
+            }
+        } else {
+            List<Future<Void>> futures = new ArrayList<>(files.size());
+            try {
+                for (TypeScriptFile file : files) {
+                    futures.add(executor.submit(() -> {
+                        writeFile(file, directory, fileExtension, journal);
+                        return null;
+                    }));
+                }
+                for (int i = 0; i < futures.size(); i++) {
+                    Util.await(futures.get(i));
+                    addExports(barrels, files.get(i));
+                }
+            } finally {
+                for (Future<Void> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        if (!writeBarrels) return;
+        String barrelFileName = BARREL_NAME + (fileExtension != null ? fileExtension : TYPESCRIPT_EXTENSION);
+        Set<String> packageNames = new TreeSet<>();
+        for (TypeScriptFile file : files) {
+            packageNames.add(file.packageName);
+        }
+        for (String packageName : packageNames) {
+            if (modules.contains(ClassName.get(packageName, BARREL_NAME))) {
+                continue; // The package declares its own index module.
+            }
+            Path path = Util.packageDirectory(directory, packageName).resolve(barrelFileName);
+            Map<String, Set<String>> exports = barrels.get(packageName);
+            if (exports != null) {
+                writeBarrel(path, exports);
+            } else {
+                deleteStaleBarrel(path);
+            }
+        }
+    }
+
+    private void writeFile(TypeScriptFile file, Path directory, String fileExtension,
+                           GenerationJournal journal) throws IOException {
+        if (journal == null) {
+            file.writeTo(directory, fileExtension, this);
+            return;
+        }
+        String path = file.path(fileExtension);
+        if (journal.isComplete(directory, path)) return;
+        file.writeTo(directory, fileExtension, this);
+        journal.record(directory, path);
+    }
+
+    /**
+     * Writes every file to {@code sink} as UTF-8 using the standard directory structure.
+     */
+    public void writeTo(OutputSink sink) throws IOException {
+        writeTo(sink, TYPESCRIPT_EXTENSION);
+    }
+
+    /**
+     * Writes every file to {@code sink} as UTF-8 using the standard directory structure, in order.
+     * If the project was built to {@linkplain Builder#renderInParallel render in parallel}, files are
+     * rendered concurrently and then written one at a time. Only a few renderings per thread are
+     * held in memory while they wait for their turn.
+     */
+    public void writeTo(OutputSink sink, String fileExtension) throws IOException {
+        checkNotNull(sink, "sink == null");
+        Map<String, Map<String, Set<String>>> barrels = new TreeMap<>();
+        if (executor == null) {
+            for (TypeScriptFile file : files) {
+                file.writeTo(sink, fileExtension, this);
+                addExports(barrels, file);
+            }
+        } else {
+            Deque<Future<String>> renderings = new ArrayDeque<>();
+            int window = 2 * parallelism(executor);
+            int submitted = 0;
+            try {
+                for (int i = 0; i < files.size(); i++) {
+                    for (; submitted < files.size() && submitted - i < window; submitted++) {
+                        TypeScriptFile file = files.get(submitted);
+                        renderings.add(executor.submit(() -> render(file)));
+                    }
+                    String text = Util.await(renderings.remove());
+                    Util.writeFile(sink, files.get(i).path(fileExtension), writer -> writer.write(text));
+                    addExports(barrels, files.get(i));
+                }
+            } finally {
+                for (Future<String> rendering : renderings) {
+                    rendering.cancel(true);
+                }
+            }
+        }
+
+        if (!writeBarrels) return;
+        for (Map.Entry<String, Map<String, Set<String>>> barrel : barrels.entrySet()) {
+            if (modules.contains(ClassName.get(barrel.getKey(), BARREL_NAME))) continue;
+            String path = Util.packagePath(barrel.getKey(),
+                    BARREL_NAME + (fileExtension != null ? fileExtension : TYPESCRIPT_EXTENSION));
+            String text = barrelText(barrel.getValue());
+            Util.writeFile(sink, path, writer -> writer.write(text));
+        }
+    }
+
+    /**
+     * Returns about how many tasks {@code executor} runs at once.
+     */
+    private static int parallelism(ExecutorService executor) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        if (executor instanceof ForkJoinPool) return ((ForkJoinPool) executor).getParallelism();
+        if (executor instanceof ThreadPoolExecutor) {
+            return Math.max(1, Math.min(((ThreadPoolExecutor) executor).getMaximumPoolSize(), processors));
+        }
+        return processors;
+    }
+
+    private void addExports(Map<String, Map<String, Set<String>>> barrels, TypeScriptFile file) {
+        if (!writeBarrels) return;
+        List<String> exportedNames = file.exportedNames();
+        if (exportedNames.isEmpty()) return;
+        Map<String, Set<String>> modules = barrels.get(file.packageName);
+        if (modules == null) {
+            modules = new TreeMap<>();
+            barrels.put(file.packageName, modules);
+        }
+        Set<String> names = modules.get(file.fileName);
+        if (names == null) {
+            names = new TreeSet<>();
+            modules.put(file.fileName, names);
+        }
+        names.addAll(exportedNames);
+    }
+
+    /**
+     * Writes a barrel re-exporting {@code modules} to {@code path}, unless it already has that content.
+     */
+    private static void writeBarrel(Path path, Map<String, Set<String>> modules) throws IOException {
+        byte[] content = barrelText(modules).getBytes(UTF_8);
+        if (Files.isRegularFile(path) && Arrays.equals(Files.readAllBytes(path), content)) return;
+        Files.createDirectories(path.getParent());
+        // Write next to the barrel and rename, so that a failed write never leaves a truncated barrel.
+        Path temporaryPath = Util.createTemporarySibling(path);
+        try {
+            Files.write(temporaryPath, content);
+            Util.moveAtomically(temporaryPath, path);
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
+
+    /**
+     * Deletes the barrel at {@code path} if it only has re-exports, as barrels written earlier do.
+     * Anything else was written by hand and is kept.
+     */
+    private static void deleteStaleBarrel(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) return;
+        List<String> lines = Files.readAllLines(path, UTF_8);
+        if (lines.isEmpty()) return;
+        for (String line : lines) {
+            if (!BARREL_LINE.matcher(line).matches()) return;
+        }
+        Files.delete(path);
+    }
+
+    private static String barrelText(Map<String, Set<String>> modules) {
+        StringBuilder barrel = new StringBuilder();
+        for (Map.Entry<String, Set<String>> module : modules.entrySet()) {
+            barrel.append("export { ")
+                    .append(Util.join(", ", new ArrayList<>(module.getValue())))
+                    .append(" } from './")
+                    .append(module.getKey())
+                    .append("';\n");
+        }
+        return barrel.toString();
+    }
+
+    public static final class Builder {
+        private final List<TypeScriptFile> files = new ArrayList<>();
+        private ExecutorService executor;
+        private boolean writeBarrels;
+
+        private Builder() {
+        }
+
+        public Builder addFile(TypeScriptFile file) {
+            files.add(checkNotNull(file, "file == null"));
+            return this;
+        }
+
+        public Builder addFiles(Iterable<TypeScriptFile> files) {
+            checkArgument(files != null, "files == null");
+            for (TypeScriptFile file : files) {
+                addFile(file);
+            }
+            return this;
+        }
+
+        /**
+         * Writes files concurrently on {@code executor}. Pass null to write them one at a time.
+         */
+        public Builder renderInParallel(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Also writes an {@code index.ts} barrel for each package with exported declarations.
+         */
+        public Builder writeBarrels(boolean writeBarrels) {
+            this.writeBarrels = writeBarrels;
+            return this;
+        }
+
+        public TypeScriptProject build() {
+            return new TypeScriptProject(this);
+        }
+    }
+}
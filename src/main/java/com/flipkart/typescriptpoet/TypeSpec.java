@@ -18,8 +18,12 @@ package com.flipkart.typescriptpoet;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.flipkart.typescriptpoet.Util.*;
 
@@ -27,18 +31,36 @@ import static com.flipkart.typescriptpoet.Util.*;
  * A generated class, interface, or enum declaration.
  */
 public final class TypeSpec {
+    /**
+     * Types with fewer members than this are always rendered on the calling thread.
+     */
+    private static final int PARALLEL_MEMBER_THRESHOLD = 64;
+    private static final int MIN_MEMBER_GROUP = 16;
+
     public final String name;
     public final List<AnnotationSpec> annotations;
     final CodeBlock anonymousTypeArguments;
     final Set<Modifier> modifiers;
     final List<TypeSpec> typeSpecs;
-    private final Kind kind;
+    final Kind kind;
+    final List<TypeVariableName> typeVariables;
+    final List<FieldSpec> fieldSpecs;
     private final CodeBlock javadoc;
-    private final List<TypeVariableName> typeVariables;
     private final TypeName superclass;
     private final List<TypeName> superinterfaces;
-    private final Map<String, TypeSpec> enumConstants;
-    private final List<FieldSpec> fieldSpecs;
+    private final String[] enumConstantNames;
+    /**
+     * The initializer of each enum constant, or null for constants without one.
+     */
+    private final CodeBlock[] enumConstantValues;
+    /**
+     * The constants that carry documentation, annotations or members, which are emitted as types.
+     */
+    private final Map<String, TypeSpec> enumConstantBodies;
+    private final List<Iterable<? extends Map.Entry<String, CodeBlock>>> lazyEnumConstants;
+    private final List<Iterable<FieldSpec>> lazyFieldSpecs;
+    private final List<Iterable<FunctionSpec>> lazyFunctionSpecs;
+    private final List<CodeBlock> protectedRegions;
     private final CodeBlock staticBlock;
     private final CodeBlock initializerBlock;
     private final List<FunctionSpec> functionSpecs;
@@ -54,7 +76,13 @@ public final class TypeSpec {
         this.typeVariables = Util.immutableList(builder.typeVariables);
         this.superclass = builder.superclass;
         this.superinterfaces = Util.immutableList(builder.superinterfaces);
-        this.enumConstants = Util.immutableMap(builder.enumConstants);
+        this.enumConstantNames = builder.enumConstantNames.toArray(new String[0]);
+        this.enumConstantValues = builder.enumConstantValues.toArray(new CodeBlock[0]);
+        this.enumConstantBodies = Util.immutableMap(builder.enumConstantBodies);
+        this.lazyEnumConstants = Util.immutableList(builder.lazyEnumConstants);
+        this.lazyFieldSpecs = Util.immutableList(builder.lazyFieldSpecs);
+        this.lazyFunctionSpecs = Util.immutableList(builder.lazyFunctionSpecs);
+        this.protectedRegions = Util.immutableList(builder.protectedRegions);
         this.fieldSpecs = Util.immutableList(builder.fieldSpecs);
         this.staticBlock = builder.staticBlock.build();
         this.initializerBlock = builder.initializerBlock.build();
@@ -84,7 +112,13 @@ public final class TypeSpec {
         this.typeVariables = Collections.emptyList();
         this.superclass = null;
         this.superinterfaces = Collections.emptyList();
-        this.enumConstants = Collections.emptyMap();
+        this.enumConstantNames = new String[0];
+        this.enumConstantValues = new CodeBlock[0];
+        this.enumConstantBodies = Collections.emptyMap();
+        this.lazyEnumConstants = Collections.emptyList();
+        this.lazyFieldSpecs = Collections.emptyList();
+        this.lazyFunctionSpecs = Collections.emptyList();
+        this.protectedRegions = Collections.emptyList();
         this.fieldSpecs = Collections.emptyList();
         this.staticBlock = type.staticBlock;
         this.initializerBlock = type.initializerBlock;
@@ -140,6 +174,13 @@ public final class TypeSpec {
     }
 
     public Builder toBuilder() {
+        return toBuilder(name);
+    }
+
+    /**
+     * Returns a builder for a copy of this type named {@code name}.
+     */
+    Builder toBuilder(String name) {
         Builder builder = new Builder(kind, name, anonymousTypeArguments);
         builder.javadoc.add(javadoc);
         builder.annotations.addAll(annotations);
@@ -147,21 +188,74 @@ public final class TypeSpec {
         builder.typeVariables.addAll(typeVariables);
         builder.superclass = superclass;
         builder.superinterfaces.addAll(superinterfaces);
-        builder.enumConstants.putAll(enumConstants);
+        for (int i = 0; i < enumConstantNames.length; i++) {
+            builder.putEnumConstant(enumConstantNames[i], enumConstantValues[i],
+                    enumConstantBodies.get(enumConstantNames[i]));
+        }
+        builder.lazyEnumConstants.addAll(lazyEnumConstants);
         builder.fieldSpecs.addAll(fieldSpecs);
+        builder.lazyFieldSpecs.addAll(lazyFieldSpecs);
         builder.functionSpecs.addAll(functionSpecs);
+        builder.lazyFunctionSpecs.addAll(lazyFunctionSpecs);
+        builder.protectedRegions.addAll(protectedRegions);
         builder.typeSpecs.addAll(typeSpecs);
         builder.initializerBlock.add(initializerBlock);
         builder.staticBlock.add(staticBlock);
         return builder;
     }
 
+    /**
+     * Returns a copy of this type without its nested types.
+     */
+    TypeSpec withoutNestedTypes() {
+        Builder builder = toBuilder();
+        builder.typeSpecs.clear();
+        return builder.build();
+    }
+
+    /**
+     * Returns true if this enum constant has nothing to emit but its name and initializer.
+     */
+    private boolean isPlainEnumConstant() {
+        return javadoc.isEmpty() && annotations.isEmpty() && modifiers.isEmpty()
+                && typeVariables.isEmpty() && superclass.equals(ClassName.OBJECT)
+                && superinterfaces.isEmpty() && fieldSpecs.isEmpty() && functionSpecs.isEmpty()
+                && typeSpecs.isEmpty() && lazyFieldSpecs.isEmpty() && lazyFunctionSpecs.isEmpty()
+                && protectedRegions.isEmpty()
+                && staticBlock.isEmpty() && initializerBlock.isEmpty()
+                && originatingElements.isEmpty();
+    }
+
+    /**
+     * Returns a copy of this nested type as the exported top-level type {@code name}, without the
+     * modifiers that only apply to members.
+     */
+    TypeSpec toTopLevel(String name) {
+        Builder builder = toBuilder(name);
+        builder.modifiers.removeAll(Arrays.asList(
+                Modifier.PUBLIC, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL, Modifier.EXPORT));
+        builder.modifiers.add(0, Modifier.EXPORT);
+        return builder.build();
+    }
+
+    /**
+     * Returns a builder for a copy of this type without its fields.
+     */
+    Builder toBuilderWithoutFields() {
+        Builder builder = toBuilder();
+        builder.fieldSpecs.clear();
+        return builder;
+    }
+
     void emit(CodeWriter codeWriter, String enumName, Set<Modifier> implicitModifiers)
             throws IOException {
         // Nested classes interrupt wrapped line indentation. Stash the current wrapping state and put
         // it back afterwards when this type is complete.
         int previousStatementLine = codeWriter.statementLine;
         codeWriter.statementLine = -1;
+        // Only the outermost type renders its members in parallel; types nested in it never do.
+        ExecutorService memberExecutor = codeWriter.memberExecutor;
+        codeWriter.memberExecutor = null;
 
         try {
             if (enumName != null) {
@@ -172,7 +266,7 @@ public final class TypeSpec {
                     codeWriter.emit(" = ");
                     codeWriter.emit(anonymousTypeArguments);
                 }
-                if (fieldSpecs.isEmpty() && functionSpecs.isEmpty() && typeSpecs.isEmpty()) {
+                if (!hasMembers()) {
                     return; // Avoid unnecessary braces "{}".
                 }
                 codeWriter.emit(" {\n");
@@ -236,73 +330,49 @@ public final class TypeSpec {
             codeWriter.pushType(this);
             codeWriter.indent();
             boolean firstMember = true;
-            for (Iterator<Map.Entry<String, TypeSpec>> i = enumConstants.entrySet().iterator();
-                 i.hasNext(); ) {
-                Map.Entry<String, TypeSpec> enumConstant = i.next();
-                if (!firstMember) codeWriter.emit("\n");
-                enumConstant.getValue()
-                        .emit(codeWriter, enumConstant.getKey(), Collections.<Modifier>emptySet());
-                firstMember = false;
-                if (i.hasNext()) {
-                    codeWriter.emit(",\n");
-                } else if (!fieldSpecs.isEmpty() || !functionSpecs.isEmpty() || !typeSpecs.isEmpty()) {
-                    codeWriter.emit(";\n");
+            for (int i = 0; i < enumConstantNames.length; i++) {
+                if (!firstMember) codeWriter.emitAndIndent(",\n").emitAndIndent("\n");
+                TypeSpec body = enumConstantBodies.isEmpty() ? null : enumConstantBodies.get(enumConstantNames[i]);
+                if (body != null) {
+                    body.emit(codeWriter, enumConstantNames[i], Collections.<Modifier>emptySet());
                 } else {
-                    codeWriter.emit("\n");
+                    emitEnumConstant(codeWriter, enumConstantNames[i], enumConstantValues[i]);
                 }
-            }
-
-            // Static fields.
-            for (FieldSpec fieldSpec : fieldSpecs) {
-                if (!fieldSpec.hasModifier(com.flipkart.typescriptpoet.Modifier.STATIC)) continue;
-                if (!firstMember) codeWriter.emit("\n");
-                fieldSpec.emit(codeWriter, kind.implicitFieldModifiers);
-                firstMember = false;
-            }
-
-            if (!staticBlock.isEmpty()) {
-                if (!firstMember) codeWriter.emit("\n");
-                codeWriter.emit(staticBlock);
                 firstMember = false;
             }
-
-            // Non-static fields.
-            for (FieldSpec fieldSpec : fieldSpecs) {
-                if (fieldSpec.hasModifier(com.flipkart.typescriptpoet.Modifier.STATIC)) continue;
-                if (!firstMember) codeWriter.emit("\n");
-                fieldSpec.emit(codeWriter, kind.implicitFieldModifiers);
-                firstMember = false;
-            }
-
-            // Initializer block.
-            if (!initializerBlock.isEmpty()) {
-                if (!firstMember) codeWriter.emit("\n");
-                codeWriter.emit(initializerBlock);
-                firstMember = false;
-            }
-
-            // Constructors.
-            for (FunctionSpec functionSpec : functionSpecs) {
-                if (!functionSpec.isConstructor()) continue;
-                if (!firstMember) codeWriter.emit("\n");
-                functionSpec.emit(codeWriter, name, kind.implicitMethodModifiers);
-                firstMember = false;
-            }
-
-            // Methods (static and non-static).
-            for (FunctionSpec functionSpec : functionSpecs) {
-                if (functionSpec.isConstructor()) continue;
-                if (!firstMember) codeWriter.emit("\n");
-                functionSpec.emit(codeWriter, name, kind.implicitMethodModifiers);
-                firstMember = false;
+            for (Iterable<? extends Map.Entry<String, CodeBlock>> constants : lazyEnumConstants) {
+                for (Map.Entry<String, CodeBlock> constant : constants) {
+                    if (!firstMember) codeWriter.emitAndIndent(",\n").emitAndIndent("\n");
+                    emitEnumConstant(codeWriter, constant.getKey(), constant.getValue());
+                    firstMember = false;
+                }
             }
-
-            // Types.
-            for (TypeSpec typeSpec : typeSpecs) {
-                if (!firstMember) codeWriter.emit("\n");
-                typeSpec.emit(codeWriter, null, kind.implicitTypeModifiers);
-                firstMember = false;
+            // Enum constants end with ';' if members follow. Whether lazily supplied members exist is
+            // only known once they are pulled, so the terminator waits for the first member.
+            boolean constantsOpen = !firstMember;
+
+            List<Object> members = members();
+            if (memberExecutor != null && members.size() >= PARALLEL_MEMBER_THRESHOLD
+                    && lazyFieldSpecs.isEmpty() && lazyFunctionSpecs.isEmpty()) {
+                if (constantsOpen) codeWriter.emitAndIndent(";\n");
+                constantsOpen = false;
+                emitMembersInParallel(codeWriter, memberExecutor, members, firstMember);
+            } else {
+                for (Object member : members) {
+                    // Lazily supplied members are emitted as they are pulled, and not retained.
+                    Iterable<?> group = member instanceof Iterable
+                            ? (Iterable<?>) member
+                            : Collections.singletonList(member);
+                    for (Object groupMember : group) {
+                        if (constantsOpen) codeWriter.emitAndIndent(";\n");
+                        constantsOpen = false;
+                        if (!firstMember) codeWriter.emit("\n");
+                        emitMember(codeWriter, groupMember);
+                        firstMember = false;
+                    }
+                }
             }
+            if (constantsOpen) codeWriter.emitAndIndent("\n");
 
             codeWriter.unindent();
             codeWriter.popType();
@@ -313,6 +383,214 @@ public final class TypeSpec {
             }
         } finally {
             codeWriter.statementLine = previousStatementLine;
+            codeWriter.memberExecutor = memberExecutor;
+        }
+    }
+
+    private static void emitEnumConstant(CodeWriter codeWriter, String name, CodeBlock value)
+            throws IOException {
+        codeWriter.emitAndIndent(name);
+        if (value != null && !value.isEmpty()) {
+            codeWriter.emitAndIndent(" = ");
+            codeWriter.emit(value);
+        }
+    }
+
+    /**
+     * Returns true if this type has fields, methods or nested types, or sources of lazily supplied
+     * ones. The sources are not pulled, so they count even if they turn out to be empty.
+     */
+    private boolean hasMembers() {
+        return !fieldSpecs.isEmpty() || !functionSpecs.isEmpty() || !typeSpecs.isEmpty()
+                || !protectedRegions.isEmpty() || !lazyFieldSpecs.isEmpty() || !lazyFunctionSpecs.isEmpty();
+    }
+
+    /**
+     * Visits this type with {@code visitor}: its documentation, annotations, type variables,
+     * supertypes, enum constants and members.
+     */
+    public void accept(SpecVisitor visitor) {
+        if (visitor.visitType(this)) acceptChildren(visitor);
+    }
+
+    private void acceptChildren(SpecVisitor visitor) {
+        if (visitor.visitDoc(javadoc)) javadoc.accept(visitor);
+        for (AnnotationSpec annotation : annotations) {
+            annotation.accept(visitor);
+        }
+        for (TypeVariableName typeVariable : typeVariables) {
+            typeVariable.acceptDeclaration(visitor);
+        }
+        if (superclass != null && !superclass.equals(ClassName.OBJECT)) superclass.accept(visitor);
+        for (TypeName superinterface : superinterfaces) {
+            superinterface.accept(visitor);
+        }
+        if (anonymousTypeArguments != null) anonymousTypeArguments.accept(visitor);
+        for (int i = 0; i < enumConstantNames.length; i++) {
+            TypeSpec constant = enumConstantBodies.get(enumConstantNames[i]);
+            if (constant == null) {
+                constant = anonymousClassBuilder(enumConstantValues[i] != null
+                        ? enumConstantValues[i]
+                        : CodeBlock.builder().build()).build();
+            }
+            if (visitor.visitEnumConstant(enumConstantNames[i], constant)) {
+                constant.acceptChildren(visitor);
+            }
+        }
+        for (Iterable<? extends Map.Entry<String, CodeBlock>> constants : lazyEnumConstants) {
+            for (Map.Entry<String, CodeBlock> entry : constants) {
+                TypeSpec constant = anonymousClassBuilder(entry.getValue() != null
+                        ? entry.getValue()
+                        : CodeBlock.builder().build()).build();
+                if (visitor.visitEnumConstant(entry.getKey(), constant)) {
+                    constant.acceptChildren(visitor);
+                }
+            }
+        }
+        for (Object member : members()) {
+            if (member instanceof Iterable) {
+                for (Object lazyMember : (Iterable<?>) member) {
+                    if (lazyMember instanceof FieldSpec) {
+                        ((FieldSpec) lazyMember).accept(visitor);
+                    } else {
+                        ((FunctionSpec) lazyMember).accept(visitor);
+                    }
+                }
+            } else if (member instanceof FieldSpec) {
+                ((FieldSpec) member).accept(visitor);
+            } else if (member instanceof FunctionSpec) {
+                ((FunctionSpec) member).accept(visitor);
+            } else if (member instanceof TypeSpec) {
+                ((TypeSpec) member).accept(visitor);
+            } else {
+                ((CodeBlock) member).accept(visitor);
+            }
+        }
+    }
+
+    /**
+     * Returns the members of this type in emission order: static fields, the static block, instance
+     * fields, lazily supplied fields, the initializer block, constructors, methods, lazily supplied
+     * methods, protected regions and finally nested types. Lazily supplied members are included as their iterables.
+     */
+    private List<Object> members() {
+        List<Object> members = new ArrayList<>(
+                fieldSpecs.size() + functionSpecs.size() + typeSpecs.size() + 2);
+
+        // Static fields.
+        for (FieldSpec fieldSpec : fieldSpecs) {
+            if (fieldSpec.hasModifier(com.flipkart.typescriptpoet.Modifier.STATIC)) members.add(fieldSpec);
+        }
+
+        if (!staticBlock.isEmpty()) members.add(staticBlock);
+
+        // Non-static fields.
+        for (FieldSpec fieldSpec : fieldSpecs) {
+            if (!fieldSpec.hasModifier(com.flipkart.typescriptpoet.Modifier.STATIC)) members.add(fieldSpec);
+        }
+
+        // Lazily supplied fields.
+        members.addAll(lazyFieldSpecs);
+
+        // Initializer block.
+        if (!initializerBlock.isEmpty()) members.add(initializerBlock);
+
+        // Constructors.
+        for (FunctionSpec functionSpec : functionSpecs) {
+            if (functionSpec.isConstructor()) members.add(functionSpec);
+        }
+
+        // Methods (static and non-static).
+        for (FunctionSpec functionSpec : functionSpecs) {
+            if (!functionSpec.isConstructor()) members.add(functionSpec);
+        }
+
+        // Lazily supplied methods.
+        members.addAll(lazyFunctionSpecs);
+
+        // Protected regions.
+        members.addAll(protectedRegions);
+
+        // Types.
+        members.addAll(typeSpecs);
+        return members;
+    }
+
+    private void emitMember(CodeWriter codeWriter, Object member) throws IOException {
+        if (member instanceof FieldSpec) {
+            ((FieldSpec) member).emit(codeWriter, kind.implicitFieldModifiers);
+        } else if (member instanceof FunctionSpec) {
+            ((FunctionSpec) member).emit(codeWriter, name, kind.implicitMethodModifiers);
+        } else if (member instanceof TypeSpec) {
+            ((TypeSpec) member).emit(codeWriter, null, kind.implicitTypeModifiers);
+        } else {
+            codeWriter.emit((CodeBlock) member);
+        }
+    }
+
+    /**
+     * Renders groups of members concurrently, each into its own buffer through a fork of {@code
+     * codeWriter}, then appends the buffers in order. Every member starts on a fresh line at the same
+     * indentation, so the result is identical to rendering the members one after another.
+     * <p>
+     * <p>A group that no worker has started when its turn comes is rendered by the calling thread,
+     * so this never waits on queued tasks and can't deadlock an executor whose workers call it.
+     */
+    private void emitMembersInParallel(CodeWriter codeWriter, ExecutorService executor,
+                                       List<Object> members, boolean firstMember) throws IOException {
+        int groupSize = Math.max(MIN_MEMBER_GROUP,
+                members.size() / (Runtime.getRuntime().availableProcessors() * 4));
+        List<MemberGroup> groups = new ArrayList<>();
+        List<Future<String>> renderings = new ArrayList<>();
+        try {
+            for (int start = 0; start < members.size(); start += groupSize) {
+                final MemberGroup group = new MemberGroup(codeWriter,
+                        members.subList(start, Math.min(start + groupSize, members.size())),
+                        !firstMember || start > 0);
+                groups.add(group);
+                renderings.add(executor.submit(() -> group.claim() ? group.render() : null));
+            }
+            for (int i = 0; i < groups.size(); i++) {
+                MemberGroup group = groups.get(i);
+                String rendered = group.claim() ? group.render() : await(renderings.get(i));
+                codeWriter.emitFork(group.fork, rendered);
+            }
+        } finally {
+            for (Future<String> rendering : renderings) {
+                rendering.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Members rendered together into a fork, by whichever thread claims them first.
+     */
+    private final class MemberGroup {
+        final StringBuilder buffer = new StringBuilder();
+        final CodeWriter fork;
+        private final List<Object> members;
+        private final boolean separateFirst;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        MemberGroup(CodeWriter codeWriter, List<Object> members, boolean separateFirst) {
+            this.fork = codeWriter.fork(buffer);
+            this.members = members;
+            this.separateFirst = separateFirst;
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        String render() throws IOException {
+            boolean first = !separateFirst;
+            for (Object member : members) {
+                if (!first) fork.emit("\n");
+                emitMember(fork, member);
+                first = false;
+            }
+            fork.close();
+            return buffer.toString();
         }
     }
 
@@ -337,7 +615,7 @@ public final class TypeSpec {
             emit(codeWriter, null, Collections.<Modifier>emptySet());
             return out.toString();
         } catch (IOException e) {
-            throw new AssertionError();
+            throw new UncheckedIOException(e);
         }
     }
 
@@ -392,7 +670,15 @@ public final class TypeSpec {
         private final List<Modifier> modifiers = new ArrayList<>();
         private final List<TypeVariableName> typeVariables = new ArrayList<>();
         private final List<TypeName> superinterfaces = new ArrayList<>();
-        private final Map<String, TypeSpec> enumConstants = new LinkedHashMap<>();
+        private final List<String> enumConstantNames = new ArrayList<>();
+        private final List<CodeBlock> enumConstantValues = new ArrayList<>();
+        private final Map<String, Integer> enumConstantIndexes = new HashMap<>();
+        private final Map<String, TypeSpec> enumConstantBodies = new HashMap<>();
+        private final List<Iterable<? extends Map.Entry<String, CodeBlock>>> lazyEnumConstants =
+                new ArrayList<>();
+        private final List<Iterable<FieldSpec>> lazyFieldSpecs = new ArrayList<>();
+        private final List<Iterable<FunctionSpec>> lazyFunctionSpecs = new ArrayList<>();
+        private final List<CodeBlock> protectedRegions = new ArrayList<>();
         private final List<FieldSpec> fieldSpecs = new ArrayList<>();
         private final CodeBlock.Builder staticBlock = CodeBlock.builder();
         private final CodeBlock.Builder initializerBlock = CodeBlock.builder();
@@ -496,15 +782,87 @@ public final class TypeSpec {
         }
 
         public Builder addEnumConstant(String name) {
-            return addEnumConstant(name, anonymousClassBuilder("").build());
+            return putEnumConstant(name, null, null);
+        }
+
+        /**
+         * Adds the constant {@code name} initialized to {@code value}, like {@code NOT_FOUND = 404}.
+         */
+        public Builder addEnumConstant(String name, CodeBlock value) {
+            checkNotNull(value, "value == null");
+            return putEnumConstant(name, value.isEmpty() ? null : value, null);
         }
 
+        /**
+         * Adds the constant {@code name} declared by {@code typeSpec}. Prefer the other overloads for
+         * constants without documentation, annotations or members: they are stored and emitted without
+         * a type per constant.
+         */
         public Builder addEnumConstant(String name, TypeSpec typeSpec) {
             checkState(kind == Kind.ENUM, "%s is not enum", this.name);
             checkArgument(typeSpec.anonymousTypeArguments != null,
                     "enum constants must have anonymous type arguments");
+            CodeBlock value = typeSpec.anonymousTypeArguments.isEmpty() ? null : typeSpec.anonymousTypeArguments;
+            return putEnumConstant(name, value, typeSpec.isPlainEnumConstant() ? null : typeSpec);
+        }
+
+        private Builder putEnumConstant(String name, CodeBlock value, TypeSpec body) {
+            checkState(kind == Kind.ENUM, "%s is not enum", this.name);
             checkArgument(SourceVersion.isName(name), "not a valid enum constant: %s", name);
-            enumConstants.put(name, typeSpec);
+            Integer index = enumConstantIndexes.get(name);
+            if (index == null) {
+                enumConstantIndexes.put(name, enumConstantNames.size());
+                enumConstantNames.add(name);
+                enumConstantValues.add(value);
+            } else {
+                enumConstantValues.set(index, value);
+            }
+            if (body != null) {
+                enumConstantBodies.put(name, body);
+            } else {
+                enumConstantBodies.remove(name);
+            }
+            return this;
+        }
+
+        /**
+         * Adds enum constants that are pulled from {@code constants} each time this type is emitted,
+         * after the constants added directly. Each entry maps a constant's name to its initializer, or
+         * to null. Writing a file emits it twice, once to collect imports, so {@code constants} must
+         * yield the same entries each time. Lazily supplied members are neither validated nor held.
+         */
+        public Builder addLazyEnumConstants(Iterable<? extends Map.Entry<String, CodeBlock>> constants) {
+            checkState(kind == Kind.ENUM, "%s is not enum", this.name);
+            lazyEnumConstants.add(checkNotNull(constants, "constants == null"));
+            return this;
+        }
+
+        /**
+         * Adds fields that are pulled from {@code fieldSpecs} each time this type is emitted, after the
+         * instance fields added directly. Like {@linkplain #addLazyEnumConstants lazy enum constants},
+         * they must be the same each time.
+         */
+        public Builder addLazyFields(Iterable<FieldSpec> fieldSpecs) {
+            lazyFieldSpecs.add(checkNotNull(fieldSpecs, "fieldSpecs == null"));
+            return this;
+        }
+
+        /**
+         * Adds methods that are pulled from {@code functionSpecs} each time this type is emitted, after
+         * the methods added directly. Like {@linkplain #addLazyEnumConstants lazy enum constants},
+         * they must be the same each time.
+         */
+        public Builder addLazyMethods(Iterable<FunctionSpec> functionSpecs) {
+            lazyFunctionSpecs.add(checkNotNull(functionSpecs, "functionSpecs == null"));
+            return this;
+        }
+
+        /**
+         * Adds a {@linkplain CodeBlock#protectedRegion protected region} for hand-written members,
+         * after the methods.
+         */
+        public Builder addProtectedRegion(String name, CodeBlock defaultContent) {
+            protectedRegions.add(CodeBlock.protectedRegion(name, defaultContent));
             return this;
         }
 
@@ -555,6 +913,12 @@ public final class TypeSpec {
         }
 
         public Builder addMethod(FunctionSpec functionSpec) {
+            checkMethod(functionSpec);
+            functionSpecs.add(functionSpec);
+            return this;
+        }
+
+        private void checkMethod(FunctionSpec functionSpec) {
             if (kind == Kind.INTERFACE) {
                 requireExactlyOneOf(functionSpec.modifiers, Modifier.PUBLIC, Modifier.PRIVATE);
             } else if (kind == Kind.ANNOTATION) {
@@ -570,8 +934,6 @@ public final class TypeSpec {
                 checkState(!hasDefaultModifier(functionSpec.modifiers), "%s %s.%s cannot be default",
                         kind, name, functionSpec.name);
             }
-            functionSpecs.add(functionSpec);
-            return this;
         }
 
         public Builder addTypes(Iterable<TypeSpec> typeSpecs) {
@@ -583,11 +945,15 @@ public final class TypeSpec {
         }
 
         public Builder addType(TypeSpec typeSpec) {
+            checkType(typeSpec);
+            typeSpecs.add(typeSpec);
+            return this;
+        }
+
+        private void checkType(TypeSpec typeSpec) {
             checkArgument(typeSpec.modifiers.containsAll(kind.implicitTypeModifiers),
                     "%s %s.%s requires modifiers %s", kind, name, typeSpec.name,
                     kind.implicitTypeModifiers);
-            typeSpecs.add(typeSpec);
-            return this;
         }
 
         public Builder addOriginatingElement(Element originatingElement) {
@@ -595,8 +961,16 @@ public final class TypeSpec {
             return this;
         }
 
+        /**
+         * Returns a builder that accepts fields, methods and types for this type from many threads.
+         * Members added through it are appended to this builder's members when it is built.
+         */
+        public ConcurrentBuilder concurrent() {
+            return new ConcurrentBuilder(this);
+        }
+
         public TypeSpec build() {
-            checkArgument(kind != Kind.ENUM || !enumConstants.isEmpty(),
+            checkArgument(kind != Kind.ENUM || !enumConstantNames.isEmpty() || !lazyEnumConstants.isEmpty(),
                     "at least one enum constant is required for %s", name);
 
             boolean isAbstract = modifiers.contains(Modifier.ABSTRACT) || kind != Kind.CLASS;
@@ -613,4 +987,125 @@ public final class TypeSpec {
             return new TypeSpec(this);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Collects members from parallel producers. Each thread adds to one of several independently
+     * locked segments, so producers rarely contend. Because arrival order is arbitrary, {@link
+     * #build} sorts the collected members; by default by name, with ties broken by their code.
+     */
+    public static final class ConcurrentBuilder {
+        private static final SpecVisitor TIE_BREAK_CHECK = CodeBlock.rejectingStreamOnce("Ordering members");
+        private static final Comparator<FieldSpec> FIELDS_BY_NAME =
+                Comparator.comparing((FieldSpec fieldSpec) -> fieldSpec.name)
+                        .thenComparing(fieldSpec -> {
+                            fieldSpec.accept(TIE_BREAK_CHECK);
+                            return fieldSpec.toString();
+                        });
+        private static final Comparator<FunctionSpec> FUNCTIONS_BY_NAME =
+                Comparator.comparing((FunctionSpec functionSpec) -> functionSpec.name)
+                        .thenComparing(functionSpec -> {
+                            functionSpec.accept(TIE_BREAK_CHECK);
+                            return functionSpec.toString();
+                        });
+        private static final Comparator<TypeSpec> TYPES_BY_NAME =
+                Comparator.comparing((TypeSpec typeSpec) -> typeSpec.name)
+                        .thenComparing(typeSpec -> {
+                            typeSpec.accept(TIE_BREAK_CHECK);
+                            return typeSpec.toString();
+                        });
+
+        private final Builder builder;
+        private final Segment[] segments;
+        private Comparator<? super FieldSpec> fieldOrder = FIELDS_BY_NAME;
+        private Comparator<? super FunctionSpec> functionOrder = FUNCTIONS_BY_NAME;
+        private Comparator<? super TypeSpec> typeOrder = TYPES_BY_NAME;
+
+        private ConcurrentBuilder(Builder builder) {
+            this.builder = builder;
+            int count = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1);
+            this.segments = new Segment[count];
+            for (int i = 0; i < count; i++) {
+                segments[i] = new Segment();
+            }
+        }
+
+        public ConcurrentBuilder orderFieldsBy(Comparator<? super FieldSpec> order) {
+            this.fieldOrder = checkNotNull(order, "order == null");
+            return this;
+        }
+
+        public ConcurrentBuilder orderMethodsBy(Comparator<? super FunctionSpec> order) {
+            this.functionOrder = checkNotNull(order, "order == null");
+            return this;
+        }
+
+        public ConcurrentBuilder orderTypesBy(Comparator<? super TypeSpec> order) {
+            this.typeOrder = checkNotNull(order, "order == null");
+            return this;
+        }
+
+        public ConcurrentBuilder addField(FieldSpec fieldSpec) {
+            checkNotNull(fieldSpec, "fieldSpec == null");
+            Segment segment = segment();
+            synchronized (segment) {
+                segment.fieldSpecs.add(fieldSpec);
+            }
+            return this;
+        }
+
+        public ConcurrentBuilder addMethod(FunctionSpec functionSpec) {
+            builder.checkMethod(checkNotNull(functionSpec, "functionSpec == null"));
+            Segment segment = segment();
+            synchronized (segment) {
+                segment.functionSpecs.add(functionSpec);
+            }
+            return this;
+        }
+
+        public ConcurrentBuilder addType(TypeSpec typeSpec) {
+            builder.checkType(checkNotNull(typeSpec, "typeSpec == null"));
+            Segment segment = segment();
+            synchronized (segment) {
+                segment.typeSpecs.add(typeSpec);
+            }
+            return this;
+        }
+
+        private Segment segment() {
+            return segments[(int) Thread.currentThread().getId() & (segments.length - 1)];
+        }
+
+        /**
+         * Moves the collected members, sorted, to the underlying builder and builds it. Producers
+         * must have finished adding before this is called.
+         */
+        public TypeSpec build() {
+            List<FieldSpec> fieldSpecs = new ArrayList<>();
+            List<FunctionSpec> functionSpecs = new ArrayList<>();
+            List<TypeSpec> typeSpecs = new ArrayList<>();
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    fieldSpecs.addAll(segment.fieldSpecs);
+                    functionSpecs.addAll(segment.functionSpecs);
+                    typeSpecs.addAll(segment.typeSpecs);
+                    segment.fieldSpecs.clear();
+                    segment.functionSpecs.clear();
+                    segment.typeSpecs.clear();
+                }
+            }
+            Collections.sort(fieldSpecs, fieldOrder);
+            Collections.sort(functionSpecs, functionOrder);
+            Collections.sort(typeSpecs, typeOrder);
+            builder.fieldSpecs.addAll(fieldSpecs);
+            builder.functionSpecs.addAll(functionSpecs);
+            builder.typeSpecs.addAll(typeSpecs);
+            return builder.build();
+        }
+
+        private static final class Segment {
+            final List<FieldSpec> fieldSpecs = new ArrayList<>();
+            final List<FunctionSpec> functionSpecs = new ArrayList<>();
+            final List<TypeSpec> typeSpecs = new ArrayList<>();
+        }
+    }
+}
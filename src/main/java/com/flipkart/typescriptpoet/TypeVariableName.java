@@ -35,7 +35,7 @@ public final class TypeVariableName extends TypeName {
 
     private TypeVariableName(String name, List<TypeName> bounds, List<AnnotationSpec> annotations) {
         super(annotations);
-        this.name = checkNotNull(name, "name == null");
+        this.name = NamePool.canonical(checkNotNull(name, "name == null"));
         this.bounds = bounds;
 
         for (TypeName bound : this.bounds) {
@@ -43,6 +43,28 @@ public final class TypeVariableName extends TypeName {
         }
     }
 
+    /**
+     * Type variables are equal by name alone, but only variables with the same bounds may share an
+     * instance.
+     */
+    @Override
+    boolean internEquivalent(TypeName other) {
+        return equals(other) && bounds.equals(((TypeVariableName) other).bounds);
+    }
+
+    /**
+     * Visits the declaration of this type variable: its annotations and bounds.
+     */
+    void acceptDeclaration(SpecVisitor visitor) {
+        if (!visitor.visitTypeVariable(this)) return;
+        for (AnnotationSpec annotation : annotations) {
+            annotation.accept(visitor);
+        }
+        for (TypeName bound : bounds) {
+            bound.accept(visitor);
+        }
+    }
+
     @Override
     public TypeVariableName annotated(List<AnnotationSpec> annotations) {
         return new TypeVariableName(name, bounds, annotations);
@@ -72,7 +94,8 @@ public final class TypeVariableName extends TypeName {
         // Strip java.lang.Object from bounds if it is present.
         List<TypeName> boundsNoObject = new ArrayList<>(bounds);
         boundsNoObject.remove(OBJECT);
-        return new TypeVariableName(name, Collections.unmodifiableList(boundsNoObject));
+        return NamePool.canonical(
+                new TypeVariableName(name, Collections.unmodifiableList(boundsNoObject)));
     }
 
     @Override
@@ -16,9 +16,22 @@
 
 package com.flipkart.typescriptpoet;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static java.lang.Character.isISOControl;
 
@@ -31,6 +44,17 @@ final class Util {
      * Modifier.DEFAULT doesn't exist until Java 8, but we want to run on earlier releases.
      */
     static final Modifier DEFAULT = Modifier.DEFAULT;
+    private static final String[] CHARACTER_ESCAPES = escapes();
+    private static final String[] STRING_ESCAPES = escapes();
+    private static final String[] TEMPLATE_ESCAPES = escapes();
+
+    static {
+        CHARACTER_ESCAPES['\''] = "\\'";
+        STRING_ESCAPES['"'] = "\\\"";
+        TEMPLATE_ESCAPES['\n'] = null;
+        TEMPLATE_ESCAPES['`'] = "\\`";
+        TEMPLATE_ESCAPES['$'] = "\\$";
+    }
 
     private Util() {
     }
@@ -101,56 +125,124 @@ final class Util {
     }
 
     static String characterLiteralWithoutSingleQuotes(char c) {
-        // see https://docs.oracle.com/javase/specs/jls/se7/html/jls-3.html#jls-3.10.6
-        switch (c) {
-            case '\b':
-                return "\\b"; /* \u0008: backspace (BS) */
-            case '\t':
-                return "\\t"; /* \u0009: horizontal tab (HT) */
-            case '\n':
-                return "\\n"; /* \u000a: linefeed (LF) */
-            case '\f':
-                return "\\f"; /* \u000c: form feed (FF) */
-            case '\r':
-                return "\\r"; /* \u000d: carriage return (CR) */
-            case '\"':
-                return "\"";  /* \u0022: double quote (") */
-            case '\'':
-                return "\\'"; /* \u0027: single quote (') */
-            case '\\':
-                return "\\\\";  /* \u005c: backslash (\) */
-            default:
-                return isISOControl(c) ? String.format("\\u%04x", (int) c) : Character.toString(c);
-        }
+        String escape = c < CHARACTER_ESCAPES.length ? CHARACTER_ESCAPES[c] : null;
+        return escape != null ? escape : Character.toString(c);
     }
 
     /**
      * Returns the string literal representing {@code value}, including wrapping double quotes.
      */
     static String stringLiteralWithDoubleQuotes(String value, String indent) {
-        StringBuilder result = new StringBuilder(value.length() + 2);
-        result.append('"');
+        StringBuilder result = null;
+        int start = 0; // The first character not yet copied to result.
         for (int i = 0; i < value.length(); i++) {
             char c = value.charAt(i);
-            // trivial case: single quote must not be escaped
-            if (c == '\'') {
-                result.append("'");
-                continue;
-            }
-            // trivial case: double quotes must be escaped
-            if (c == '\"') {
-                result.append("\\\"");
-                continue;
-            }
-            // default case: just let character literal do its work
-            result.append(characterLiteralWithoutSingleQuotes(c));
+            String escape = c < STRING_ESCAPES.length ? STRING_ESCAPES[c] : null;
+            if (escape == null) continue;
+            if (result == null) result = new StringBuilder(value.length() + 16).append('"');
+            result.append(value, start, i).append(escape);
+            start = i + 1;
             // need to append indent after linefeed?
             if (c == '\n' && i + 1 < value.length()) {
                 result.append("\"\n").append(indent).append(indent).append("+ \"");
             }
         }
-        result.append('"');
-        return result.toString();
+        if (result == null) {
+            return new StringBuilder(value.length() + 2).append('"').append(value).append('"').toString();
+        }
+        return result.append(value, start, value.length()).append('"').toString();
+    }
+
+    /**
+     * Returns the template literal representing {@code value}, including wrapping backticks. Line
+     * feeds are not escaped, so the literal spans as many lines as {@code value}.
+     */
+    static String templateLiteral(String value) {
+        StringBuilder result = new StringBuilder(value.length() + 16).append('`');
+        int start = 0; // The first character not yet copied to result.
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String escape = c < TEMPLATE_ESCAPES.length ? TEMPLATE_ESCAPES[c] : null;
+            if (escape == null) continue;
+            // '$' only starts a placeholder when followed by '{'.
+            if (c == '$' && (i + 1 == value.length() || value.charAt(i + 1) != '{')) continue;
+            result.append(value, start, i).append(escape);
+            start = i + 1;
+        }
+        return result.append(value, start, value.length()).append('`').toString();
+    }
+
+    /**
+     * Appends the first {@code length} of {@code chars} to {@code out}, escaped for a double-quoted
+     * string literal on a single line, or for a template literal in which line feeds are kept and
+     * every {@code $} is escaped.
+     */
+    static void appendEscaped(StringBuilder out, char[] chars, int length, boolean template) {
+        String[] escapes = template ? TEMPLATE_ESCAPES : STRING_ESCAPES;
+        int start = 0; // The first character not yet copied to out.
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            String escape = c < escapes.length ? escapes[c] : null;
+            if (escape == null) continue;
+            out.append(chars, start, i - start).append(escape);
+            start = i + 1;
+        }
+        out.append(chars, start, length - start);
+    }
+
+    /**
+     * Returns a table of escapes indexed by character, covering the ISO control characters and the
+     * backslash. Characters at or past the end of the table need no escaping.
+     */
+    private static String[] escapes() {
+        // see https://docs.oracle.com/javase/specs/jls/se7/html/jls-3.html#jls-3.10.6
+        String[] escapes = new String[0xa0]; // The last control character is U+009F.
+        for (char c = 0; c < escapes.length; c++) {
+            if (isISOControl(c)) escapes[c] = String.format("\\u%04x", (int) c);
+        }
+        escapes['\b'] = "\\b";
+        escapes['\t'] = "\\t";
+        escapes['\n'] = "\\n";
+        escapes['\f'] = "\\f";
+        escapes['\r'] = "\\r";
+        escapes['\\'] = "\\\\";
+        return escapes;
+    }
+
+    /**
+     * Waits for {@code future}, rethrowing the failure of its task as thrown by the task.
+     */
+    static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new AssertionError(cause);
+        }
+    }
+
+    /**
+     * Returns the SHA-256 digest of {@code text} encoded as UTF-8.
+     */
+    static byte[] sha256(CharSequence text) {
+        return sha256(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the SHA-256 digest of {@code bytes}.
+     */
+    static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e); // Every Java platform supports SHA-256.
+        }
     }
 
     static boolean isList(ClassName typeName) {
@@ -166,15 +258,121 @@ final class Util {
                 simpleName.equals(ClassName.get(HashMap.class).simpleName());
     }
 
-    static Path absolutePath(String packageName, String fileName) {
-        String currentClass = packageName + "." + fileName;
-        currentClass = currentClass.replace(".", "/");
-        return Paths.get(currentClass);
+    /**
+     * Returns the directory of {@code packageName} in {@code directory}.
+     */
+    static Path packageDirectory(Path directory, String packageName) {
+        Path result = directory;
+        if (!packageName.isEmpty()) {
+            for (String packageComponent : packageName.split("\\.")) {
+                result = result.resolve(packageComponent);
+            }
+        }
+        return result;
     }
 
-    static String getRelativePath(Path currentPath, Path importPath) {
-        Path path = currentPath.relativize(importPath);
-        String pathString = path.toFile().toString();
-        return pathString.substring(1, pathString.length());
+    /**
+     * Returns the path of {@code fileName} in the directory of {@code packageName}, relative to the
+     * output root and separated by {@code '/'}, like {@code "com/example/model/Address.ts"}.
+     */
+    static String packagePath(String packageName, String fileName) {
+        return packageName.isEmpty() ? fileName : packageName.replace('.', '/') + '/' + fileName;
+    }
+
+    /**
+     * Checks that {@code path} is a {@code '/'}-separated relative path that stays below the root it
+     * is resolved against: no empty, {@code "."} or {@code ".."} segments, and no backslashes.
+     */
+    static void checkRelativePath(String path) {
+        checkArgument(path != null && !path.isEmpty(), "invalid path: %s", path);
+        for (String segment : path.split("/", -1)) {
+            checkArgument(!segment.isEmpty() && !segment.equals(".") && !segment.equals("..")
+                    && segment.indexOf('\\') == -1, "invalid path: %s", path);
+        }
+    }
+
+    /**
+     * Writes the file at {@code path} to {@code sink} with {@code content}, and {@linkplain
+     * OutputSink#discard discards} it if that fails.
+     */
+    static void writeFile(OutputSink sink, String path, FileContent content) throws IOException {
+        Writer writer = sink.openFile(path);
+        try {
+            content.writeTo(writer);
+        } catch (IOException | RuntimeException | Error e) {
+            try {
+                sink.discard(writer);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        writer.close();
+    }
+
+    interface FileContent {
+        void writeTo(Writer writer) throws IOException;
+    }
+
+    /**
+     * Creates an empty file next to {@code target} for writing its new content. The file gets the
+     * permissions of {@code target} if it exists, or else those of any newly created file, unlike
+     * {@link Files#createTempFile} which makes it readable by its owner only.
+     */
+    static Path createTemporarySibling(Path target) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        String prefix = target.getFileName().toString() + '.';
+        while (true) {
+            Path temporary = directory.resolve(
+                    prefix + Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36) + ".tmp");
+            try {
+                Files.createFile(temporary);
+            } catch (FileAlreadyExistsException e) {
+                continue;
+            }
+            try {
+                if (Files.exists(target)
+                        && Files.getFileAttributeView(target, PosixFileAttributeView.class) != null) {
+                    Files.setPosixFilePermissions(temporary, Files.getPosixFilePermissions(target));
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+            return temporary;
+        }
+    }
+
+    /**
+     * Replaces {@code target} with {@code source} in a single step if the file system supports it.
+     */
+    static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Returns the path from modules in {@code fromPackage} to the directory of {@code toPackage}, like
+     * {@code "./../model/"} from {@code com.example.api} to {@code com.example.model}. Append a
+     * module name to get a module specifier.
+     */
+    static String modulePrefix(String fromPackage, String toPackage) {
+        String[] from = fromPackage.isEmpty() ? new String[0] : fromPackage.split("\\.");
+        String[] to = toPackage.isEmpty() ? new String[0] : toPackage.split("\\.");
+        int common = 0;
+        while (common < from.length && common < to.length && from[common].equals(to[common])) {
+            common++;
+        }
+        StringBuilder result = new StringBuilder("./");
+        for (int i = common; i < from.length; i++) {
+            result.append("../");
+        }
+        for (int i = common; i < to.length; i++) {
+            result.append(to[i]).append('/');
+        }
+        return result.toString();
     }
 }
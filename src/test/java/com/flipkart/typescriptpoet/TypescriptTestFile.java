@@ -1,12 +1,43 @@
 package com.flipkart.typescriptpoet;
 
+import org.junit.Assume;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
 
 @RunWith(JUnit4.class)
 public class TypescriptTestFile {
@@ -104,4 +135,1187 @@ public class TypescriptTestFile {
         TypeSpec typeSpec = typeSpecBuilder.build();
         TypeScriptFile.builder("com.flipkart.typescript", typeSpec).build().writeTo(generatedSources);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void namePoolSharesEqualTypeNames() throws Exception {
+        NamePool pool = new NamePool();
+        NamePool.install(pool);
+        try {
+            ClassName first = ClassName.get("com.flipkart.typescript", "ColorClass");
+            ClassName second = ClassName.get("com.flipkart.typescript", "ColorClass");
+            assertSame(first, second);
+            assertSame(ParameterizedTypeName.get(List.class, String.class),
+                    ParameterizedTypeName.get(List.class, String.class));
+
+            // Type variables are equal by name, but differently bounded ones must stay distinct.
+            TypeVariableName bounded = TypeVariableName.get("T", first);
+            TypeVariableName unbounded = TypeVariableName.get("T");
+            assertEquals(bounded, unbounded);
+            assertNotSame(bounded, unbounded);
+            assertSame(bounded, TypeVariableName.get("T", second));
+        } finally {
+            NamePool.uninstall();
+        }
+        assertNotSame(ClassName.get("com.flipkart.typescript", "ColorClass"),
+                ClassName.get("com.flipkart.typescript", "ColorClass"));
+    }
+
+    @Test
+    public void nestedCodeBlocksEmitLikeFlattenedOnes() throws Exception {
+        StringBuilder expected = new StringBuilder();
+        CodeBlock body = CodeBlock.builder().build();
+        for (int chunk = 0; chunk < 1000; chunk++) {
+            CodeBlock.Builder statements = CodeBlock.builder();
+            for (int i = 0; i < 100; i++) {
+                statements.addStatement("this.$N = $L", "field" + i, chunk * 100 + i);
+                expected.append("this.field").append(i).append(" = ").append(chunk * 100 + i).append(";\n");
+            }
+            // Left-deep nesting: every block contains the previous one.
+            body = CodeBlock.builder().add(body).add(statements.build()).build();
+        }
+        assertEquals(expected.toString(), body.toString());
+
+        CodeBlock wrapped = CodeBlock.builder()
+                .beginControlFlow("if (ready)")
+                .add(body)
+                .endControlFlow()
+                .build();
+        assertTrue(wrapped.toString().startsWith("if (ready) {\n  this.field0 = 0;\n"));
+    }
+
+    @Test
+    public void joiningCollectsCodeBlocksInOrder() throws Exception {
+        List<CodeBlock> cases = new ArrayList<>();
+        StringBuilder expected = new StringBuilder("switch (code) {\n");
+        for (int i = 0; i < 10000; i++) {
+            cases.add(CodeBlock.of("case $L: return $S;", i, "status" + i));
+            if (i > 0) expected.append("\n");
+            expected.append("case ").append(i).append(": return \"status").append(i).append("\";");
+        }
+        expected.append("\n}");
+
+        CodeBlock serial = cases.stream().collect(CodeBlock.joining("\n", "switch (code) {\n", "\n}"));
+        CodeBlock parallel = cases.parallelStream()
+                .collect(CodeBlock.joining("\n", "switch (code) {\n", "\n}"));
+        assertEquals(expected.toString(), serial.toString());
+        assertEquals(expected.toString(), parallel.toString());
+        assertTrue(CodeBlock.join(cases.subList(0, 0), ", ").isEmpty());
+        assertEquals("1 $ 2", CodeBlock.join(Arrays.asList(CodeBlock.of("1"), CodeBlock.of("2")), " $ ").toString());
+    }
+
+    @Test
+    public void concurrentBuilderOrdersMembersDeterministically() throws Exception {
+        final TypeSpec.ConcurrentBuilder concurrent = TypeSpec.classBuilder("Schema").concurrent();
+        TypeSpec.Builder serial = TypeSpec.classBuilder("Schema");
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            names.add(String.format("column%05d", i));
+        }
+        for (String name : names) {
+            serial.addField(FieldSpec.builder(TypeName.STRING, name).build());
+            serial.addMethod(FunctionSpec.methodBuilder("get_" + name).returns(TypeName.STRING).build());
+        }
+        names.parallelStream().forEach(name -> {
+            concurrent.addField(FieldSpec.builder(TypeName.STRING, name).build());
+            concurrent.addMethod(FunctionSpec.methodBuilder("get_" + name).returns(TypeName.STRING).build());
+        });
+        assertEquals(serial.build().toString(), concurrent.build().toString());
+    }
+
+    @Test
+    public void parallelRenderingMatchesSerialRendering() throws Exception {
+        TypeSpec.Builder typeSpecBuilder = TypeSpec.classBuilder("Service").addModifiers(Modifier.EXPORT);
+        for (int i = 0; i < 2000; i++) {
+            ClassName model = ClassName.get("com.flipkart.model" + (i % 7), "Model" + (i % 13));
+            typeSpecBuilder.addField(FieldSpec.builder(model, "cached" + i).optional().build());
+            typeSpecBuilder.addMethod(FunctionSpec.methodBuilder("load" + i)
+                    .addParameter(ParameterSpec.builder(TypeName.STRING, "id").build())
+                    .returns(model)
+                    .addStatement("return new $T(id, $S)", model, "value\n" + i)
+                    .build());
+        }
+        typeSpecBuilder.addType(TypeSpec.classBuilder("Inner").addField(TypeName.INT, "count").build());
+        TypeScriptFile serial = TypeScriptFile.builder("com.flipkart.service", typeSpecBuilder.build()).build();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            TypeScriptFile parallel = serial.toBuilder().renderInParallel(executor).build();
+            assertEquals(serial.toString(), parallel.toString());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void visitorSeesNestedTypeReferences() throws Exception {
+        final ClassName model = ClassName.get("com.flipkart.model", "Model");
+        final ClassName listener = ClassName.get("com.flipkart.model", "Listener");
+        TypeSpec anonymous = TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(listener)
+                .addMethod(FunctionSpec.methodBuilder("onChange")
+                        .addParameter(ParameterSpec.builder(model, "value").build())
+                        .build())
+                .build();
+        TypeSpec typeSpec = TypeSpec.classBuilder("Service")
+                .addField(FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(List.class), model), "models").build())
+                .addMethod(FunctionSpec.methodBuilder("listen")
+                        .addStatement("this.$N = $L", "listener", anonymous)
+                        .addCode(CodeBlock.of("return new $T($S);\n", model, "id"))
+                        .build())
+                .build();
+        TypeScriptFile file = TypeScriptFile.builder("com.flipkart.service", typeSpec).build();
+
+        final List<String> references = new ArrayList<>();
+        file.accept(new SpecVisitor() {
+            @Override
+            public boolean visitTypeName(TypeName typeName) {
+                if (typeName instanceof ClassName) references.add(((ClassName) typeName).simpleName());
+                return true;
+            }
+        });
+        assertEquals(Arrays.asList("Model", "Listener", "Model", "Model"), references);
+
+        references.clear();
+        file.accept(new SpecVisitor() {
+            @Override
+            public boolean visitFunction(FunctionSpec function) {
+                return false;
+            }
+
+            @Override
+            public boolean visitTypeName(TypeName typeName) {
+                if (typeName instanceof ClassName) references.add(((ClassName) typeName).simpleName());
+                return true;
+            }
+        });
+        assertEquals(Arrays.asList("Model"), references);
+    }
+
+    @Test
+    public void dependencyGraphFindsFilesWhoseTextChanged() throws Exception {
+        ClassName address = ClassName.get("com.flipkart.model", "Address");
+        TypeScriptFile user = TypeScriptFile.builder("com.flipkart.model", TypeSpec.classBuilder("User")
+                .addField(address, "home")
+                .build()).build();
+        TypeScriptFile order = TypeScriptFile.builder("com.flipkart.order", TypeSpec.classBuilder("Order")
+                .addField(TypeName.STRING, "id")
+                .build()).build();
+        TypeSpec.Builder addressSpec = TypeSpec.classBuilder("Address").addField(TypeName.STRING, "city");
+        DependencyGraph before = DependencyGraph.of(Arrays.asList(user, order,
+                TypeScriptFile.builder("com.flipkart.model", addressSpec.build()).build()));
+
+        assertEquals(Collections.singleton(address), before.references(ClassName.get("com.flipkart.model", "User")));
+        Set<ClassName> affected = before.affectedBy(Collections.singleton(address));
+        assertEquals(2, affected.size());
+        assertTrue(affected.contains(ClassName.get("com.flipkart.model", "User")));
+
+        // Rebuild the affected files; only the changed class renders differently.
+        DependencyGraph after = before.update(Arrays.asList(user,
+                TypeScriptFile.builder("com.flipkart.model", addressSpec.addField(TypeName.STRING, "zip").build()).build()));
+        assertEquals(Collections.singleton(address), after.changedSince(before));
+
+        Path directory = Files.createTempDirectory("dependency-graph");
+        assertEquals(Collections.singleton(address), after.writeChanged(before, directory));
+        assertTrue(Files.exists(directory.resolve("com/flipkart/model/Address.ts")));
+        assertFalse(Files.exists(directory.resolve("com/flipkart/model/User.ts")));
+    }
+
+    @Test
+    public void reachabilityPrunesUnreferencedFiles() throws Exception {
+        ClassName api = ClassName.get("com.flipkart.api", "Api");
+        ClassName request = ClassName.get("com.flipkart.model", "Request");
+        ClassName payload = ClassName.get("com.flipkart.model", "Payload");
+        ClassName unused = ClassName.get("com.flipkart.model", "Unused");
+        List<TypeScriptFile> files = Arrays.asList(
+                TypeScriptFile.builder("com.flipkart.api", TypeSpec.classBuilder("Api")
+                        .addMethod(FunctionSpec.methodBuilder("send")
+                                .addParameter(ParameterSpec.builder(request, "request").build())
+                                .build())
+                        .build()).build(),
+                TypeScriptFile.builder("com.flipkart.model", TypeSpec.classBuilder("Request")
+                        .addTypeVariable(TypeVariableName.get("T", payload))
+                        .build()).build(),
+                TypeScriptFile.builder("com.flipkart.model", TypeSpec.classBuilder("Payload")
+                        .superclass(request)
+                        .build()).build(),
+                TypeScriptFile.builder("com.flipkart.model", TypeSpec.classBuilder("Unused")
+                        .addField(api, "api")
+                        .build()).build());
+        DependencyGraph graph = DependencyGraph.of(files);
+        assertEquals(new TreeSet<>(Arrays.asList(api, request, payload)),
+                graph.reachableFrom(Collections.singleton(api)));
+        assertEquals(4, graph.reachableFrom(Collections.singleton(unused)).size());
+    }
+
+    @Test
+    public void deduplicatorReExportsIdenticalDeclarations() throws Exception {
+        List<TypeScriptFile> files = new ArrayList<>();
+        for (String service : Arrays.asList("cart", "checkout", "search")) {
+            TypeSpec address = TypeSpec.interfaceBuilder(service.equals("search") ? "Location" : "Address")
+                    .addModifiers(Modifier.EXPORT)
+                    .addField(TypeName.STRING, "city")
+                    .addField(ClassName.get("com.flipkart.geo", "Point"), "point")
+                    .build();
+            files.add(TypeScriptFile.builder("com.flipkart." + service, address).build());
+        }
+        files.add(TypeScriptFile.builder("com.flipkart.search", TypeSpec.interfaceBuilder("Query")
+                .addModifiers(Modifier.EXPORT)
+                .addField(TypeName.STRING, "city")
+                .build()).build());
+
+        List<TypeScriptFile> result = Deduplicator.deduplicate(files, "com.flipkart.shared");
+        assertEquals(5, result.size());
+        assertEquals("export { Address } from './../shared/Address';\n", result.get(0).toString());
+        assertEquals("export { Address as Location } from './../shared/Address';\n", result.get(2).toString());
+        assertSame(files.get(3), result.get(3));
+        assertEquals(""
+                + "import { Point } from './../geo/Point' ;\n"
+                + "\n"
+                + "export interface Address {\n"
+                + "  city: string;\n"
+                + "\n"
+                + "  point: Point;\n"
+                + "}\n", result.get(4).toString());
+    }
+
+    @Test
+    public void projectResolvesImportsLikeStandaloneFiles() throws Exception {
+        TypeScriptProject.Builder builder = TypeScriptProject.builder();
+        List<TypeScriptFile> files = new ArrayList<>();
+        String[] packages = {"com.flipkart.api", "com.flipkart.api.v2", "com.flipkart.model", "org.example"};
+        for (int i = 0; i < 40; i++) {
+            TypeSpec.Builder typeSpec = TypeSpec.classBuilder("Type" + i).addModifiers(Modifier.EXPORT);
+            for (int j = 1; j <= 3; j++) {
+                int target = (i + j * 7) % 40;
+                typeSpec.addField(ClassName.get(packages[target % packages.length], "Type" + target), "field" + j);
+            }
+            files.add(TypeScriptFile.builder(packages[i % packages.length], typeSpec.build()).build());
+        }
+        TypeScriptProject project = builder.addFiles(files).build();
+        for (TypeScriptFile file : files) {
+            assertEquals(file.toString(), project.render(file));
+        }
+        assertEquals("./../../model/Type2",
+                project.moduleSpecifier("com.flipkart.api.v2", ClassName.get("com.flipkart.model", "Type2")));
+
+        Path serial = Files.createTempDirectory("project-serial");
+        Path parallel = Files.createTempDirectory("project-parallel");
+        project.writeTo(serial);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            TypeScriptProject.builder().addFiles(files).renderInParallel(executor).build().writeTo(parallel);
+        } finally {
+            executor.shutdown();
+        }
+        for (TypeScriptFile file : files) {
+            String path = file.packageName.replace('.', '/') + "/" + file.typeSpec.name + ".ts";
+            assertArrayEquals(Files.readAllBytes(serial.resolve(path)), Files.readAllBytes(parallel.resolve(path)));
+        }
+    }
+
+    @Test
+    public void projectWritesBarrelsOnlyWhenExportsChange() throws Exception {
+        List<TypeScriptFile> files = new ArrayList<>();
+        files.add(TypeScriptFile.builder("com.flipkart.model", TypeSpec.interfaceBuilder("User")
+                .addModifiers(Modifier.EXPORT).build()).build());
+        files.add(TypeScriptFile.builder("com.flipkart.model", TypeSpec.classBuilder("Internal").build()).build());
+        files.add(TypeScriptFile.reExportBuilder("com.flipkart.model", "Account",
+                ClassName.get("com.flipkart.shared", "User")).build());
+
+        Path directory = Files.createTempDirectory("barrels");
+        TypeScriptProject.builder().addFiles(files).writeBarrels(true).build().writeTo(directory);
+        Path barrel = directory.resolve("com/flipkart/model/index.ts");
+        assertEquals("export { Account } from './Account';\nexport { User } from './User';\n",
+                new String(Files.readAllBytes(barrel), "UTF-8"));
+
+        FileTime written = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(barrel, written);
+        TypeScriptProject.builder().addFiles(files).writeBarrels(true).build().writeTo(directory);
+        assertEquals(written, Files.getLastModifiedTime(barrel));
+
+        files.add(TypeScriptFile.builder("com.flipkart.model", TypeSpec.enumBuilder("Role")
+                .addModifiers(Modifier.EXPORT).addEnumConstant("ADMIN").build()).build());
+        TypeScriptProject.builder().addFiles(files).writeBarrels(true).build().writeTo(directory);
+        assertNotEquals(written, Files.getLastModifiedTime(barrel));
+        assertTrue(new String(Files.readAllBytes(barrel), "UTF-8").contains("export { Role } from './Role';\n"));
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(barrel.getParent(), "*.tmp")) {
+            assertFalse(entries.iterator().hasNext());
+        }
+
+        // A package that no longer exports anything loses its generated barrel, but not one by hand.
+        List<TypeScriptFile> internal = Collections.singletonList(
+                TypeScriptFile.builder("com.flipkart.model", TypeSpec.classBuilder("Internal").build()).build());
+        TypeScriptProject.builder().addFiles(internal).writeBarrels(true).build().writeTo(directory);
+        assertFalse(Files.exists(barrel));
+        Files.write(barrel, "export * from './User';\n".getBytes("UTF-8"));
+        TypeScriptProject.builder().addFiles(internal).writeBarrels(true).build().writeTo(directory);
+        assertTrue(Files.exists(barrel));
+    }
+
+    @Test
+    public void filesDeclareSeveralTopLevelDeclarations() throws Exception {
+        ClassName status = ClassName.get("com.flipkart.model", "Status");
+        ClassName user = ClassName.get("com.flipkart.model", "User");
+        TypeScriptFile module = TypeScriptFile.moduleBuilder("com.flipkart.model", "types")
+                .addField(FieldSpec.builder(TypeName.INT, "VERSION", Modifier.EXPORT)
+                        .isMutable(false).initializer("$L", 2).build())
+                .addType(TypeSpec.enumBuilder("Status").addModifiers(Modifier.EXPORT)
+                        .addEnumConstant("ACTIVE").build())
+                .addType(TypeSpec.interfaceBuilder("User").addModifiers(Modifier.EXPORT)
+                        .addField(status, "status")
+                        .addField(ClassName.get("com.flipkart.geo", "Point"), "home")
+                        .build())
+                .addFunction(FunctionSpec.methodBuilder("isActive").addModifiers(Modifier.EXPORT)
+                        .addParameter(ParameterSpec.builder(user, "user").build())
+                        .returns(TypeName.BOOLEAN)
+                        .addStatement("return user.status == $T.ACTIVE", status)
+                        .build())
+                .build();
+        assertEquals(""
+                + "import { Point } from './../geo/Point' ;\n"
+                + "\n"
+                + "export const VERSION: number = 2;\n"
+                + "\n"
+                + "export enum Status {\n"
+                + "  ACTIVE\n"
+                + "}\n"
+                + "\n"
+                + "export interface User {\n"
+                + "  status: Status;\n"
+                + "\n"
+                + "  home: Point;\n"
+                + "}\n"
+                + "\n"
+                + "export function isActive(user: User): boolean {\n"
+                + "  return user.status == Status.ACTIVE;\n"
+                + "}\n", module.toString());
+
+        List<TypeScriptFile> files = new ArrayList<>();
+        for (String name : Arrays.asList("Address", "Order", "Invoice")) {
+            files.add(TypeScriptFile.builder("com.flipkart.model", TypeSpec.interfaceBuilder(name)
+                    .addModifiers(Modifier.EXPORT).addField(TypeName.STRING, "id").build()).build());
+        }
+        files.add(TypeScriptFile.builder("com.flipkart.api", TypeSpec.classBuilder("Api")
+                .addField(ClassName.get("com.flipkart.model", "Invoice"), "invoice").build()).build());
+        List<TypeScriptFile> packed = PackingPolicy.byPackage("models").pack(files);
+        assertEquals(2, packed.size());
+        assertEquals(3, packed.get(0).typeSpecs.size());
+        TypeScriptProject project = TypeScriptProject.builder().addFiles(packed).build();
+        assertTrue(project.render(packed.get(1)).startsWith("import { Invoice } from './../model/models' ;\n"));
+        assertEquals(4, PackingPolicy.bySize("models", 40).pack(files).size());
+
+        // The graph resolves imports against packed modules, so packing a type changes its users.
+        List<TypeScriptFile> packedModels = new ArrayList<>(PackingPolicy.byPackage("models").pack(files.subList(0, 3)));
+        packedModels.add(files.get(3));
+        DependencyGraph packedGraph = DependencyGraph.of(packedModels);
+        ClassName api = ClassName.get("com.flipkart.api", "Api");
+        assertTrue(packedGraph.changedSince(DependencyGraph.of(files)).contains(api));
+        Path directory = Files.createTempDirectory("packed-graph");
+        packedGraph.writeReachable(Collections.singleton(api), directory);
+        assertTrue(new String(Files.readAllBytes(directory.resolve("com/flipkart/api/Api.ts")), "UTF-8")
+                .startsWith("import { Invoice } from './../model/models' ;\n"));
+        assertTrue(Files.exists(directory.resolve("com/flipkart/model/models.ts")));
+    }
+
+    @Test
+    public void splitMovesNestedTypesAndFieldsIntoModules() throws Exception {
+        ClassName status = ClassName.get("com.flipkart.model", "Order", "Status");
+        TypeSpec order = TypeSpec.interfaceBuilder("Order")
+                .addModifiers(Modifier.EXPORT)
+                .addField(TypeName.STRING, "id")
+                .addField(status, "status")
+                .addField(TypeName.DOUBLE, "total")
+                .addField(TypeName.STRING, "note")
+                .addType(TypeSpec.enumBuilder("Status").addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                        .addEnumConstant("OPEN").addEnumConstant("CLOSED").build())
+                .build();
+        TypeScriptFile file = TypeScriptFile.builder("com.flipkart.model", order).build();
+        assertEquals(Collections.singletonList(file), file.split(1000, 100));
+
+        List<TypeScriptFile> files = file.split(1000, 8);
+        assertEquals(4, files.size());
+        assertEquals(""
+                + "import { Order_Part1 } from './Order_Part1' ;\n"
+                + "import { Order_Part2 } from './Order_Part2' ;\n"
+                + "\n"
+                + "export interface Order extends Order_Part1, Order_Part2 {\n"
+                + "}\n", files.get(0).toString());
+        assertEquals("Order_Status", files.get(1).typeSpec.name);
+        assertEquals(""
+                + "import { Order_Status } from './Order_Status' ;\n"
+                + "\n"
+                + "export interface Order_Part1 {\n"
+                + "  id: string;\n"
+                + "\n"
+                + "  status: Order_Status;\n"
+                + "}\n", files.get(2).toString());
+
+        TypeScriptFile api = TypeScriptFile.builder("com.flipkart.api", TypeSpec.classBuilder("Api")
+                .addField(status, "status").build()).build();
+        TypeScriptProject project = TypeScriptProject.builder().addFiles(files).addFile(api).build();
+        assertTrue(project.render(api).startsWith("import { Order_Status } from './../model/Order_Status' ;\n"));
+    }
+
+    @Test
+    public void compactEnumConstantsRenderLikeTypeSpecConstants() throws Exception {
+        TypeSpec.Builder compact = TypeSpec.enumBuilder("Status").addModifiers(Modifier.EXPORT);
+        TypeSpec.Builder full = TypeSpec.enumBuilder("Status").addModifiers(Modifier.EXPORT);
+        for (int i = 0; i < 20000; i++) {
+            compact.addEnumConstant("S" + i, CodeBlock.of("$L", i));
+            full.addEnumConstant("S" + i, TypeSpec.anonymousClassBuilder("$L", i).build());
+        }
+        compact.addEnumConstant("UNKNOWN");
+        full.addEnumConstant("UNKNOWN", TypeSpec.anonymousClassBuilder("").build());
+        assertEquals(full.build().toString(), compact.build().toString());
+
+        TypeSpec status = TypeSpec.enumBuilder("Status")
+                .addEnumConstant("OK", CodeBlock.of("$L", 200))
+                .addEnumConstant("GONE", TypeSpec.anonymousClassBuilder("$L", 410)
+                        .addJavadoc("Removed for good.\n").build())
+                .addEnumConstant("OK", CodeBlock.of("$L", 201))
+                .build();
+        assertEquals(""
+                + "enum Status {\n"
+                + "  OK = 201,\n"
+                + "\n"
+                + "  /**\n"
+                + "   * Removed for good.\n"
+                + "   */\n"
+                + "  GONE = 410\n"
+                + "}\n", status.toString());
+        assertEquals(status.toString(), status.toBuilder().build().toString());
+    }
+
+    @Test
+    public void stringsEscapeAndOptionallyBecomeTemplateLiterals() throws Exception {
+        assertEquals("\"plain 'text'\"", CodeBlock.of("$S", "plain 'text'").toString());
+        assertEquals("\"a\\\"b\\\\c\\t\\u0000\\u0085\u00e9\"", CodeBlock.of("$S", "a\"b\\c\t\u0000\u0085\u00e9").toString());
+
+        TypeSpec queries = TypeSpec.classBuilder("Queries")
+                .addField(FieldSpec.builder(TypeName.STRING, "QUERY", Modifier.STATIC)
+                        .initializer("$S", "select `id`\nfrom ${table}\nwhere cost > $1")
+                        .build())
+                .build();
+        assertEquals(""
+                + "class Queries {\n"
+                + "  static QUERY: string = \"select `id`\\n\"\n"
+                + "      + \"from ${table}\\n\"\n"
+                + "      + \"where cost > $1\";\n"
+                + "}\n", TypeScriptFile.builder("com.flipkart.db", queries).build().toString());
+        assertEquals(""
+                + "class Queries {\n"
+                + "  static QUERY: string = `select \\`id\\`\n"
+                + "from \\${table}\n"
+                + "where cost > $1`;\n"
+                + "}\n", TypeScriptFile.builder("com.flipkart.db", queries).templateLiterals(true).build().toString());
+    }
+
+    @Test
+    public void dataLiteralsRenderPrimitiveArraysAndMaps() throws Exception {
+        TypeSpec tables = TypeSpec.classBuilder("Tables")
+                .addField(FieldSpec.builder(ArrayTypeName.of(TypeName.INT), "PRIMES", Modifier.STATIC)
+                        .initializer("$L", DataLiteral.of(new int[]{2, 3, 5, 7, 11}).perLine(2))
+                        .build())
+                .addField(FieldSpec.builder(ArrayTypeName.of(TypeName.DOUBLE), "NONE", Modifier.STATIC)
+                        .initializer("$L", DataLiteral.of(new double[0]))
+                        .build())
+                .addMethod(FunctionSpec.methodBuilder("reasons").addModifiers(Modifier.STATIC)
+                        .addStatement("return $L", DataLiteral.map(new int[]{200, 404},
+                                new String[]{"OK", "Not \"Found\""}))
+                        .build())
+                .build();
+        assertEquals(""
+                + "class Tables {\n"
+                + "  static PRIMES: number[] = [\n"
+                + "    2, 3,\n"
+                + "    5, 7,\n"
+                + "    11\n"
+                + "  ];\n"
+                + "\n"
+                + "  static NONE: number[] = [];\n"
+                + "\n"
+                + "  static reasons() {\n"
+                + "    return {\n"
+                + "      200: \"OK\",\n"
+                + "      404: \"Not \\\"Found\\\"\"\n"
+                + "    };\n"
+                + "  }\n"
+                + "}\n", tables.toString());
+        assertEquals("[\n  1, -2, 3000000000\n]", DataLiteral.of(new long[]{1, -2, 3000000000L}).toString());
+        assertEquals("{\n  \"-1\": 0.5, 0: 1.0\n}",
+                DataLiteral.map(new int[]{-1, 0}, new double[]{0.5, 1}).perLine(2).toString());
+    }
+
+    @Test
+    public void lazyAndStreamedBlocksAreBuiltWhileWriting() throws Exception {
+        final ClassName point = ClassName.get("com.flipkart.geo", "Point");
+        final AtomicInteger suppliedCount = new AtomicInteger();
+        Iterator<CodeBlock> statements = new Iterator<CodeBlock>() {
+            int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < 3;
+            }
+
+            @Override
+            public CodeBlock next() {
+                return CodeBlock.builder().addStatement("points.push(new $T($L, $L))", point, next, next++).build();
+            }
+        };
+        TypeSpec shapes = TypeSpec.classBuilder("Shapes")
+                .addMethod(FunctionSpec.methodBuilder("points").addModifiers(Modifier.STATIC)
+                        .addCode(CodeBlock.lazy(() -> {
+                            suppliedCount.incrementAndGet();
+                            return CodeBlock.builder().addStatement("const points = []").build();
+                        }))
+                        .addCode(CodeBlock.streamOnce(statements, point))
+                        .addCode(CodeBlock.stream(Collections.nCopies(2,
+                                CodeBlock.builder().addStatement("points.pop()").build())))
+                        .addStatement("return points")
+                        .build())
+                .build();
+        TypeScriptFile file = TypeScriptFile.builder("com.flipkart.shapes", shapes).build();
+        assertEquals(""
+                + "import { Point } from './../geo/Point' ;\n"
+                + "\n"
+                + "class Shapes {\n"
+                + "  static points() {\n"
+                + "    const points = [];\n"
+                + "    points.push(new Point(0, 0));\n"
+                + "    points.push(new Point(1, 1));\n"
+                + "    points.push(new Point(2, 2));\n"
+                + "    points.pop();\n"
+                + "    points.pop();\n"
+                + "    return points;\n"
+                + "  }\n"
+                + "}\n", file.toString());
+        assertEquals(2, suppliedCount.get());
+        try {
+            file.toString();
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals("a stream of code blocks can be emitted only once", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void embeddedContentIsStreamedIntoLiterals() throws Exception {
+        Path template = Files.createTempFile("template", ".html");
+        Files.write(template, "<p class=\"x\">${name}</p>\n<br>".getBytes("UTF-8"));
+        TypeSpec assets = TypeSpec.classBuilder("Assets")
+                .addField(FieldSpec.builder(TypeName.STRING, "TEMPLATE", Modifier.STATIC)
+                        .initializer("$L", EmbeddedContent.text(template))
+                        .build())
+                .addField(FieldSpec.builder(TypeName.STRING, "ICON", Modifier.STATIC)
+                        .initializer("$L", EmbeddedContent.base64(new ByteArrayInputStream(new byte[]{0, 1, 2, 3, -1})))
+                        .build())
+                .build();
+        TypeScriptFile file = TypeScriptFile.builder("com.flipkart.assets", assets).build();
+        assertEquals(""
+                + "class Assets {\n"
+                + "  static TEMPLATE: string = \"<p class=\\\"x\\\">${name}</p>\\n<br>\";\n"
+                + "\n"
+                + "  static ICON: string = \"AAECA/8=\";\n"
+                + "}\n", file.toString());
+
+        TypeScriptFile templated = TypeScriptFile.builder("com.flipkart.assets", TypeSpec.classBuilder("Assets")
+                .addField(FieldSpec.builder(TypeName.STRING, "TEMPLATE", Modifier.STATIC)
+                        .initializer("$L", EmbeddedContent.text(template))
+                        .build())
+                .build()).templateLiterals(true).build();
+        assertEquals(""
+                + "class Assets {\n"
+                + "  static TEMPLATE: string = `<p class=\"x\">\\${name}</p>\n"
+                + "<br>`;\n"
+                + "}\n", templated.toString());
+        Files.delete(template);
+    }
+
+    @Test
+    public void lazyMembersArePulledWhileEmitting() throws Exception {
+        final AtomicInteger pulls = new AtomicInteger();
+        Iterable<FieldSpec> properties = () -> new Iterator<FieldSpec>() {
+            int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < 3;
+            }
+
+            @Override
+            public FieldSpec next() {
+                pulls.incrementAndGet();
+                return FieldSpec.builder(ClassName.get("com.flipkart.geo", "Point"), "p" + next++).build();
+            }
+        };
+        TypeSpec.Builder eager = TypeSpec.interfaceBuilder("Shape").addModifiers(Modifier.EXPORT)
+                .addField(TypeName.STRING, "name");
+        for (FieldSpec property : properties) {
+            eager.addField(property);
+        }
+        TypeSpec lazy = TypeSpec.interfaceBuilder("Shape").addModifiers(Modifier.EXPORT)
+                .addField(TypeName.STRING, "name")
+                .addLazyFields(properties)
+                .build();
+        pulls.set(0);
+        assertEquals(TypeScriptFile.builder("com.flipkart.shapes", eager.build()).build().toString(),
+                TypeScriptFile.builder("com.flipkart.shapes", lazy).build().toString());
+        assertEquals(6, pulls.get()); // Once to collect imports, once to write.
+
+        Map<String, CodeBlock> codes = new LinkedHashMap<>();
+        codes.put("OK", CodeBlock.of("$L", 200));
+        codes.put("GONE", null);
+        assertEquals(""
+                + "enum Status {\n"
+                + "  UNKNOWN,\n"
+                + "\n"
+                + "  OK = 200,\n"
+                + "\n"
+                + "  GONE\n"
+                + "}\n", TypeSpec.enumBuilder("Status")
+                .addEnumConstant("UNKNOWN")
+                .addLazyEnumConstants(codes.entrySet())
+                .build().toString());
+
+        final AtomicInteger opened = new AtomicInteger();
+        TypeSpec withMethods = TypeSpec.enumBuilder("Status")
+                .addEnumConstant("UNKNOWN")
+                .addLazyMethods(() -> {
+                    opened.incrementAndGet();
+                    return Collections.singletonList(FunctionSpec.methodBuilder("label").build()).iterator();
+                })
+                .build();
+        assertEquals(""
+                + "enum Status {\n"
+                + "  UNKNOWN;\n"
+                + "\n"
+                + "  label() {\n"
+                + "  }\n"
+                + "}\n", withMethods.toString());
+        assertEquals(1, opened.get()); // Not opened again to check for members.
+        assertEquals("enum Status {\n  UNKNOWN\n}\n", TypeSpec.enumBuilder("Status")
+                .addEnumConstant("UNKNOWN")
+                .addLazyMethods(Collections.<FunctionSpec>emptyList())
+                .build().toString());
+    }
+
+    @Test
+    public void offHeapBlocksRenderLikeTheirOriginals() throws Exception {
+        CodeBlock.Builder table = CodeBlock.builder().add("const table = {\n$>");
+        for (int i = 0; i < 5000; i++) {
+            table.add("$S: $L,\n", "k\u00e9y" + i, i);
+        }
+        CodeBlock original = table.add("$<};\n").build();
+        Path spillDirectory = Files.createTempDirectory("spill");
+        for (CodeBlock stored : Arrays.asList(CodeBlock.offHeap(original), CodeBlock.offHeap(original, spillDirectory))) {
+            TypeSpec expected = TypeSpec.classBuilder("Tables")
+                    .addMethod(FunctionSpec.methodBuilder("table").addCode(original).build()).build();
+            TypeSpec actual = TypeSpec.classBuilder("Tables")
+                    .addMethod(FunctionSpec.methodBuilder("table").addCode(stored).build()).build();
+            assertEquals(expected.toString(), actual.toString());
+        }
+        assertEquals(0, spillDirectory.toFile().list().length);
+        Files.delete(spillDirectory);
+
+        try {
+            CodeBlock.offHeap(CodeBlock.of("new $T()", ClassName.get("com.flipkart.geo", "Point")));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void protectedRegionsSurviveRegeneration() throws Exception {
+        Path directory = Files.createTempDirectory("regions");
+        Path written = directory.resolve("com/flipkart/api/Api.ts");
+        TypeSpec.Builder api = TypeSpec.classBuilder("Api").addModifiers(Modifier.EXPORT)
+                .addMethod(FunctionSpec.methodBuilder("ping")
+                        .addCode(CodeBlock.protectedRegion("ping", CodeBlock.of("// TODO\n")))
+                        .build())
+                .addProtectedRegion("members", CodeBlock.of(""));
+        TypeScriptFile.builder("com.flipkart.api", api.build()).build().writeTo(directory);
+        String generated = new String(Files.readAllBytes(written), "UTF-8");
+        assertEquals(""
+                + "export class Api {\n"
+                + "  ping() {\n"
+                + "    //#region ping\n"
+                + "    // TODO\n"
+                + "    //#endregion\n"
+                + "  }\n"
+                + "\n"
+                + "  //#region members\n"
+                + "  //#endregion\n"
+                + "}\n", generated);
+
+        String edited = generated
+                .replace("    // TODO\n", "    return fetch('/ping');\n")
+                .replace("  //#region members\n", "  //#region members\n  timeout = 10;\n");
+        Files.write(written, edited.getBytes("UTF-8"));
+        FileTime modified = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(written, modified);
+        TypeScriptFile.builder("com.flipkart.api", api.build()).build().writeTo(directory);
+        assertEquals(modified, Files.getLastModifiedTime(written));
+
+        api.addField(TypeName.STRING, "baseUrl");
+        TypeScriptFile.builder("com.flipkart.api", api.build()).build().writeTo(directory);
+        assertEquals(""
+                + "export class Api {\n"
+                + "  baseUrl: string;\n"
+                + "\n"
+                + "  ping() {\n"
+                + "    //#region ping\n"
+                + "    return fetch('/ping');\n"
+                + "    //#endregion\n"
+                + "  }\n"
+                + "\n"
+                + "  //#region members\n"
+                + "  timeout = 10;\n"
+                + "  //#endregion\n"
+                + "}\n", new String(Files.readAllBytes(written), "UTF-8"));
+        assertEquals(1, written.getParent().toFile().list().length);
+
+        // An output committer keeps regions and unchanged files the same way.
+        Files.setLastModifiedTime(written, modified);
+        try (OutputCommitter committer = OutputCommitter.create(directory, OutputCommitter.Durability.NONE)) {
+            TypeScriptFile.builder("com.flipkart.api", api.build()).build().writeTo(committer);
+            committer.commit();
+        }
+        assertEquals(modified, Files.getLastModifiedTime(written));
+        api.addField(TypeName.INT, "retries");
+        try (OutputCommitter committer = OutputCommitter.create(directory, OutputCommitter.Durability.NONE)) {
+            TypeScriptFile.builder("com.flipkart.api", api.build()).build().writeTo(committer);
+            committer.commit();
+        }
+        String committed = new String(Files.readAllBytes(written), "UTF-8");
+        assertTrue(committed.contains("  retries: number;\n"));
+        assertTrue(committed.contains("    return fetch('/ping');\n"));
+        assertTrue(committed.contains("  timeout = 10;\n"));
+        assertEquals(1, written.getParent().toFile().list().length);
+    }
+
+    @Test
+    public void outputCommitterPublishesFilesOnCommit() throws Exception {
+        Path directory = Files.createTempDirectory("committed");
+        TypeScriptProject project = TypeScriptProject.builder()
+                .addFile(TypeScriptFile.builder("com.flipkart.model",
+                        TypeSpec.interfaceBuilder("Point").addModifiers(Modifier.EXPORT).build()).build())
+                .writeBarrels(true)
+                .build();
+        Path point = directory.resolve("com/flipkart/model/Point.ts");
+        Path barrel = directory.resolve("com/flipkart/model/index.ts");
+
+        try (OutputCommitter committer = OutputCommitter.create(directory, OutputCommitter.Durability.FILES)) {
+            project.writeTo(committer);
+            assertFalse(Files.exists(point));
+            committer.commit();
+        }
+        assertEquals("export interface Point {\n}\n", new String(Files.readAllBytes(point), "UTF-8"));
+        assertEquals("export { Point } from './Point';\n", new String(Files.readAllBytes(barrel), "UTF-8"));
+
+        try (OutputCommitter committer = OutputCommitter.create(directory, OutputCommitter.Durability.NONE)) {
+            project.files.get(0).toBuilder().addFileComment("Uncommitted").build().writeTo(committer);
+        }
+        assertEquals("export interface Point {\n}\n", new String(Files.readAllBytes(point), "UTF-8"));
+        assertEquals(2, point.getParent().toFile().list().length);
+
+        Path blocked = Files.createDirectories(directory.resolve("blocked/b.ts/child"));
+        try (OutputCommitter committer = OutputCommitter.create(directory, OutputCommitter.Durability.NONE)) {
+            for (String name : Arrays.asList("a.ts", "b.ts", "c.ts")) {
+                committer.openFile("blocked/" + name).close();
+            }
+            try {
+                committer.commit();
+                fail();
+            } catch (IOException expected) {
+            }
+        }
+        assertEquals(new TreeSet<>(Arrays.asList("a.ts", "b.ts")),
+                new TreeSet<>(Arrays.asList(blocked.getParent().getParent().toFile().list())));
+
+        try (OutputCommitter committer = OutputCommitter.create(directory, OutputCommitter.Durability.NONE)) {
+            committer.openFile("com/../../escaped.ts");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        // A file whose rendering fails halfway never joins the batch, whether it is new or not.
+        final AtomicInteger passes = new AtomicInteger();
+        TypeSpec failing = TypeSpec.interfaceBuilder("Point").addModifiers(Modifier.EXPORT)
+                .addLazyFields(() -> {
+                    // The import pass succeeds; the output pass fails after writing a field.
+                    final boolean output = passes.incrementAndGet() % 2 == 0;
+                    return new Iterator<FieldSpec>() {
+                        int next = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < 2;
+                        }
+
+                        @Override
+                        public FieldSpec next() {
+                            if (output && next == 1) throw new IllegalStateException("bad spec");
+                            return FieldSpec.builder(TypeName.STRING, "field" + next++).build();
+                        }
+                    };
+                })
+                .build();
+        for (String packageName : Arrays.asList("com.flipkart.model", "com.flipkart.fresh")) {
+            try (OutputCommitter committer = OutputCommitter.create(directory, OutputCommitter.Durability.NONE)) {
+                try {
+                    TypeScriptFile.builder(packageName, failing).build().writeTo(committer);
+                    fail();
+                } catch (IllegalStateException expected) {
+                }
+                committer.commit();
+            }
+        }
+        assertEquals("export interface Point {\n}\n", new String(Files.readAllBytes(point), "UTF-8"));
+        assertEquals(2, point.getParent().toFile().list().length);
+        assertFalse(Files.exists(directory.resolve("com/flipkart/fresh/Point.ts")));
+        assertEquals(0, directory.resolve("com/flipkart/fresh").toFile().list().length);
+    }
+
+    @Test
+    public void archiveSinksAreReproducible() throws Exception {
+        TypeScriptProject project = TypeScriptProject.builder()
+                .addFile(TypeScriptFile.builder("com.flipkart.model",
+                        TypeSpec.interfaceBuilder("Point").addModifiers(Modifier.EXPORT).build()).build())
+                .addFile(TypeScriptFile.builder("com.flipkart.geo",
+                        TypeSpec.interfaceBuilder("Line").addModifiers(Modifier.EXPORT).build()).build())
+                .writeBarrels(true)
+                .build();
+
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+        try (ArchiveSink sink = ArchiveSink.zip(zipped)) {
+            project.writeTo(sink);
+        }
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zipped.toByteArray()))) {
+            for (ZipEntry entry; (entry = in.getNextEntry()) != null; ) {
+                names.add(entry.getName());
+            }
+        }
+        assertEquals(Arrays.asList("com/flipkart/model/Point.ts", "com/flipkart/geo/Line.ts",
+                "com/flipkart/geo/index.ts", "com/flipkart/model/index.ts"), names);
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        try (ArchiveSink sink = ArchiveSink.tarGz(first, "package/")) {
+            project.writeTo(sink);
+        }
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        try (ArchiveSink sink = ArchiveSink.tarGz(second, "package/")) {
+            project.writeTo(sink);
+        }
+        assertArrayEquals(first.toByteArray(), second.toByteArray());
+
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(first.toByteArray()))) {
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                tar.write(buffer, 0, n);
+            }
+        }
+        byte[] bytes = tar.toByteArray();
+        assertEquals(4 * 1024 + 2 * 512, bytes.length);
+        assertEquals("package/com/flipkart/model/Point.ts", new String(bytes, 0, 35, "UTF-8"));
+        assertEquals("ustar", new String(bytes, 257, 5, "UTF-8"));
+        assertEquals("export interface Point {\n}\n", new String(bytes, 512, 27, "UTF-8"));
+
+        try (ArchiveSink sink = ArchiveSink.zip(new ByteArrayOutputStream())) {
+            sink.openFile("../escaped.ts");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        ByteArrayOutputStream discarded = new ByteArrayOutputStream();
+        try (ArchiveSink sink = ArchiveSink.zip(discarded)) {
+            Writer writer = sink.openFile("Partial.ts");
+            writer.write("export class");
+            sink.discard(writer);
+        }
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(discarded.toByteArray()))) {
+            assertNull(in.getNextEntry());
+        }
+    }
+
+    @Test
+    public void memorySinkKeepsFilesInMemory() throws Exception {
+        TypeScriptFile point = TypeScriptFile.builder("com.flipkart.model",
+                TypeSpec.interfaceBuilder("Point").addModifiers(Modifier.EXPORT).build()).build();
+        TypeScriptProject project = TypeScriptProject.builder()
+                .addFile(point)
+                .addFile(TypeScriptFile.builder("com.flipkart.model.geo",
+                        TypeSpec.interfaceBuilder("Line").addModifiers(Modifier.EXPORT).build()).build())
+                .build();
+        MemorySink before = MemorySink.create();
+        project.writeTo(before);
+        assertEquals("export interface Point {\n}\n", before.read("com/flipkart/model/Point.ts"));
+        assertNull(before.read("com/flipkart/model/Line.ts"));
+        assertEquals(Arrays.asList("Point.ts", "geo/"), before.list("com/flipkart/model"));
+        assertEquals(Collections.singletonList("com/"), before.list(""));
+
+        MemorySink after = MemorySink.create();
+        point.toBuilder().addFileComment("Changed").build().writeTo(after);
+        TypeScriptFile.builder("com.flipkart.model",
+                TypeSpec.interfaceBuilder("Circle").build()).build().writeTo(after);
+        assertEquals(new TreeSet<>(Arrays.asList("com/flipkart/model/Circle.ts", "com/flipkart/model/Point.ts")),
+                after.changedSince(before));
+        assertEquals(Collections.singleton("com/flipkart/model/geo/Line.ts"), after.removedSince(before));
+
+        Path directory = Files.createTempDirectory("memory");
+        before.writeTo(directory);
+        assertEquals(before.read("com/flipkart/model/geo/Line.ts"),
+                new String(Files.readAllBytes(directory.resolve("com/flipkart/model/geo/Line.ts")), "UTF-8"));
+
+        try {
+            after.openFile("com/./../Point.ts");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        Writer partial = after.openFile("com/flipkart/model/Circle.ts");
+        partial.write("interface");
+        after.discard(partial);
+        assertEquals("interface Circle {\n}\n", after.read("com/flipkart/model/Circle.ts"));
+    }
+
+    @Test
+    public void journalResumesInterruptedRuns() throws Exception {
+        Path directory = Files.createTempDirectory("resumed");
+        Path journalFile = directory.resolve("journal.txt");
+        final AtomicInteger rendered = new AtomicInteger();
+        TypeSpec failing = TypeSpec.interfaceBuilder("Failing")
+                .addLazyFields(() -> {
+                    throw new IllegalStateException("bad spec");
+                })
+                .build();
+        TypeSpec counted = TypeSpec.interfaceBuilder("Line")
+                .addLazyFields(() -> {
+                    rendered.incrementAndGet();
+                    return Collections.<FieldSpec>emptyIterator();
+                })
+                .build();
+        TypeScriptFile point = TypeScriptFile.builder("com.flipkart.model",
+                TypeSpec.interfaceBuilder("Point").build()).build();
+        TypeScriptFile line = TypeScriptFile.builder("com.flipkart.model", counted).build();
+
+        try (GenerationJournal journal = GenerationJournal.open(journalFile, "v1")) {
+            TypeScriptProject.builder()
+                    .addFile(line)
+                    .addFile(TypeScriptFile.builder("com.flipkart.model", failing).build())
+                    .build()
+                    .writeTo(directory, ".ts", journal);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        int renderings = rendered.get(); // Lazy members are read by the import and output passes.
+        Files.write(journalFile, "torn".getBytes("UTF-8"), StandardOpenOption.APPEND);
+
+        TypeScriptProject project = TypeScriptProject.builder().addFile(line).addFile(point).build();
+        try (GenerationJournal journal = GenerationJournal.open(journalFile, "v1")) {
+            assertEquals(Collections.singleton("com/flipkart/model/Line.ts"), journal.completed());
+            project.writeTo(directory, ".ts", journal);
+        }
+        assertEquals(renderings, rendered.get());
+        assertTrue(Files.exists(directory.resolve("com/flipkart/model/Point.ts")));
+
+        Files.write(directory.resolve("com/flipkart/model/Line.ts"), "corrupt".getBytes("UTF-8"));
+        try (GenerationJournal journal = GenerationJournal.open(journalFile, "v1")) {
+            assertEquals(2, journal.completed().size());
+            project.writeTo(directory, ".ts", journal);
+        }
+        assertEquals(2 * renderings, rendered.get());
+        assertEquals("interface Line {\n}\n",
+                new String(Files.readAllBytes(directory.resolve("com/flipkart/model/Line.ts")), "UTF-8"));
+
+        try (GenerationJournal journal = GenerationJournal.open(journalFile, "v2")) {
+            assertTrue(journal.completed().isEmpty());
+        }
+    }
+
+    @Test
+    public void temporaryFilesKeepNormalPermissions() throws Exception {
+        Path directory = Files.createTempDirectory("permissions");
+        Assume.assumeTrue(Files.getFileAttributeView(directory, PosixFileAttributeView.class) != null);
+        Path plain = Files.write(directory.resolve("plain.ts"), new byte[0]);
+        TypeScriptFile file = TypeScriptFile.builder("com.flipkart.model",
+                TypeSpec.interfaceBuilder("Point").build()).build();
+        file.writeTo(directory);
+        Path point = directory.resolve("com/flipkart/model/Point.ts");
+        assertEquals(Files.getPosixFilePermissions(plain), Files.getPosixFilePermissions(point));
+
+        Set<PosixFilePermission> groupReadable = PosixFilePermissions.fromString("rw-r-----");
+        Files.setPosixFilePermissions(point, groupReadable);
+        try (OutputCommitter committer = OutputCommitter.create(directory, OutputCommitter.Durability.NONE)) {
+            file.toBuilder().addFileComment("Changed").build().writeTo(committer);
+            committer.commit();
+        }
+        assertEquals(groupReadable, Files.getPosixFilePermissions(point));
+
+        file.toBuilder().addFileComment("Rewritten").build().writeTo(directory);
+        assertTrue(new String(Files.readAllBytes(point), "UTF-8").startsWith("// Rewritten"));
+        assertEquals(groupReadable, Files.getPosixFilePermissions(point));
+    }
+
+    @Test
+    public void visitorsSeeStreamedAndSuppliedTypes() throws Exception {
+        ClassName api = ClassName.get("com.flipkart.api", "Api");
+        ClassName point = ClassName.get("com.flipkart.model", "Point");
+        ClassName line = ClassName.get("com.flipkart.model", "Line");
+        ClassName circle = ClassName.get("com.flipkart.model", "Circle");
+        List<TypeScriptFile> files = new ArrayList<>();
+        for (ClassName model : Arrays.asList(point, line, circle)) {
+            files.add(TypeScriptFile.builder(model.packageName(),
+                    TypeSpec.classBuilder(model.simpleName()).addModifiers(Modifier.EXPORT).build()).build());
+        }
+        files.add(TypeScriptFile.builder(api.packageName(), TypeSpec.classBuilder("Api")
+                .addMethod(FunctionSpec.methodBuilder("shapes")
+                        .addStatement("return [$L]", CodeBlock.stream(
+                                Collections.singletonList(CodeBlock.of("new $T()", point))))
+                        .addStatement("return $L", CodeBlock.lazy(() -> CodeBlock.of("new $T()", line)))
+                        .addStatement("return $L", CodeBlock.streamOnce(
+                                Collections.singletonList(CodeBlock.of("new $T()", circle)).iterator(), circle))
+                        .build())
+                .build()).build());
+
+        assertEquals(new TreeSet<>(Arrays.asList(api, point, line, circle)),
+                DependencyGraph.of(files).reachableFrom(Collections.singleton(api)));
+
+        try {
+            CodeBlock.offHeap(CodeBlock.stream(Collections.singletonList(CodeBlock.of("new $T()", point))));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // Only blocks made by CodeBlock.lazy are built on demand; other suppliers are plain literals.
+        Supplier<CodeBlock> supplier = new Supplier<CodeBlock>() {
+            @Override
+            public CodeBlock get() {
+                throw new AssertionError();
+            }
+
+            @Override
+            public String toString() {
+                return "supplied";
+            }
+        };
+        CodeBlock literal = CodeBlock.of("$L", supplier);
+        assertEquals("supplied", literal.toString());
+        assertEquals("supplied", CodeBlock.offHeap(literal).toString());
+    }
+
+    @Test
+    public void parallelWritesToSinksHoldFewRenderings() throws Exception {
+        final AtomicInteger rendered = new AtomicInteger();
+        TypeScriptProject.Builder builder = TypeScriptProject.builder();
+        for (int i = 0; i < 50; i++) {
+            builder.addFile(TypeScriptFile.builder("com.flipkart.model", TypeSpec.interfaceBuilder("Type" + i)
+                    .addLazyFields(() -> {
+                        rendered.incrementAndGet(); // Once for imports, once for output.
+                        return Collections.<FieldSpec>emptyIterator();
+                    })
+                    .build()).build());
+        }
+        final MemorySink memory = MemorySink.create();
+        final AtomicInteger opened = new AtomicInteger();
+        final AtomicInteger mostAhead = new AtomicInteger();
+        OutputSink sink = new OutputSink() {
+            @Override
+            public Writer openFile(String path) throws IOException {
+                int ahead = rendered.get() / 2 - opened.incrementAndGet();
+                mostAhead.set(Math.max(mostAhead.get(), ahead));
+                return memory.openFile(path);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            builder.renderInParallel(executor).build().writeTo(sink);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(50, memory.paths().size());
+        assertTrue("rendered ahead: " + mostAhead.get(), mostAhead.get() < 4);
+    }
+
+    @Test
+    public void renderingReportsFailedReads() throws Exception {
+        Path missing = Files.createTempDirectory("missing").resolve("missing.txt");
+        TypeScriptFile file = TypeScriptFile.builder("com.flipkart.assets", TypeSpec.classBuilder("Assets")
+                .addField(FieldSpec.builder(TypeName.STRING, "TEXT", Modifier.STATIC)
+                        .initializer("$L", EmbeddedContent.text(missing))
+                        .build())
+                .build()).build();
+        try {
+            TypeScriptProject.builder().addFile(file).build().render(file);
+            fail();
+        } catch (UncheckedIOException expected) {
+            assertTrue(expected.getCause() instanceof NoSuchFileException);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void parallelMembersShareOneThreadPoolWithFiles() throws Exception {
+        TypeSpec.Builder nested = TypeSpec.classBuilder("Nested");
+        TypeSpec.Builder outer = TypeSpec.classBuilder("Outer").addModifiers(Modifier.EXPORT);
+        for (int i = 0; i < 100; i++) {
+            nested.addField(TypeName.INT, "field" + i);
+            outer.addField(TypeName.STRING, "field" + i);
+        }
+        outer.addType(nested.build());
+        List<TypeScriptFile> files = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            files.add(TypeScriptFile.builder("com.flipkart.model" + i, outer.build()).build());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            MemorySink serial = MemorySink.create();
+            TypeScriptProject.builder().addFiles(files).build().writeTo(serial);
+            MemorySink parallel = MemorySink.create();
+            List<TypeScriptFile> parallelFiles = new ArrayList<>();
+            for (TypeScriptFile file : files) {
+                parallelFiles.add(file.toBuilder().renderInParallel(executor).build());
+            }
+            TypeScriptProject.builder().addFiles(parallelFiles).renderInParallel(executor).build()
+                    .writeTo(parallel);
+            assertTrue(parallel.changedSince(serial).isEmpty());
+            assertEquals(3, parallel.paths().size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void renderingOperationsRejectSingleUseStreams() throws Exception {
+        TypeScriptFile file = TypeScriptFile.builder("com.flipkart.api", TypeSpec.classBuilder("Api")
+                .addModifiers(Modifier.EXPORT)
+                .addMethod(FunctionSpec.methodBuilder("ping")
+                        .addCode(CodeBlock.streamOnce(
+                                Collections.singletonList(CodeBlock.of("return 1;\n")).iterator()))
+                        .build())
+                .build()).build();
+        List<Runnable> operations = Arrays.asList(
+                () -> file.split(10, 1),
+                () -> PackingPolicy.bySize("types", 100).pack(Collections.singletonList(file)),
+                () -> Deduplicator.deduplicate(Arrays.asList(file, file), "com.flipkart.shared"),
+                () -> DependencyGraph.of(Collections.singletonList(file))
+                        .changedSince(DependencyGraph.of(Collections.singletonList(file))));
+        for (Runnable operation : operations) {
+            try {
+                operation.run();
+                fail();
+            } catch (IllegalArgumentException expected) {
+                assertTrue(expected.getMessage().contains("CodeBlock.streamOnce()"));
+            }
+        }
+        assertEquals(""
+                + "export class Api {\n"
+                + "  ping() {\n"
+                + "    return 1;\n"
+                + "  }\n"
+                + "}\n", file.toString());
+    }
+}